@@ -0,0 +1,82 @@
+/*
+ *  Copyright 2026 the Reindex Plugin contributors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.pannous.es.reindex;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Random;
+
+/**
+ * Creates reproducible documents and scroll pages similar to the ones of a
+ * real tweet index: a few short fields, a longer text with escapes and non
+ * ascii characters, on average around 600 bytes per source.
+ */
+public class BenchmarkData {
+
+    private static final String[] WORDS = {"elasticsearch", "reindex", "scroll", "bulk", "shard", "über",
+        "naïve", "日本語", "quote\\\"d", "new\\nline", "tab\\t", "lorem", "ipsum", "dolor", "sit", "amet"};
+
+    public static String source(int i) {
+        Random rand = new Random(i);
+        StringBuilder text = new StringBuilder();
+        for (int w = 0; w < 60; w++) {
+            if (w > 0)
+                text.append(' ');
+            text.append(WORDS[rand.nextInt(WORDS.length)]);
+        }
+        return "{\"user\":\"user" + rand.nextInt(10000) + "\",\"created_at\":" + (1360000000000L + i * 1000L)
+                + ",\"retweets\":" + rand.nextInt(100) + ",\"lang\":\"de\",\"text\":\"" + text
+                + "\",\"tags\":[\"a\",\"b\",\"c\"],\"geo\":{\"lat\":52.52,\"lon\":13.41}}";
+    }
+
+    public static String id(int i) {
+        return Long.toString(0x7fffffffL * 31 + i * 7919L, 36);
+    }
+
+    public static byte[][] sources(int count) {
+        byte[][] sources = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            sources[i] = bytes(source(i));
+        }
+        return sources;
+    }
+
+    /**
+     * @return a scroll page as returned by the scroll API with the specified
+     * number of hits
+     */
+    public static byte[] scrollPage(int hits) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"_scroll_id\":\"c2NhbjsxOzE6SHpQQ2RUMVZSc2VDZk93VnZ0UmVLdzsxO3RvdGFsX2hpdHM6MTAwMDA7\",")
+                .append("\"took\":12,\"timed_out\":false,\"_shards\":{\"total\":5,\"successful\":5,\"failed\":0},")
+                .append("\"hits\":{\"total\":1000000,\"max_score\":0.0,\"hits\":[");
+        for (int i = 0; i < hits; i++) {
+            if (i > 0)
+                sb.append(',');
+            sb.append("{\"_index\":\"tweets\",\"_type\":\"tweet\",\"_id\":\"").append(id(i))
+                    .append("\",\"_version\":1,\"_score\":0.0,\"_source\":").append(source(i)).append('}');
+        }
+        sb.append("]}}");
+        return bytes(sb.toString());
+    }
+
+    static byte[] bytes(String str) {
+        try {
+            return str.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ *  Copyright 2026 the Reindex Plugin contributors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.pannous.es.reindex;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Builds the bulk request of one page like ReIndexAction.bulkUpdate does and
+ * optionally serializes it like the transport layer would.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BulkRequestBenchmark {
+
+    @Param({"1000"})
+    int hits;
+    List<MySearchHit> page;
+
+    @Setup public void setUp() throws IOException {
+        byte[] bytes = BenchmarkData.scrollPage(hits);
+        MySearchResponseJson rsp = new MySearchResponseJson("localhost", 9200, "", hits, true, 1);
+        rsp.parsePage(bytes, bytes.length);
+        page = new ArrayList<MySearchHit>();
+        for (MySearchHit hit : rsp.hits().getHits()) {
+            page.add(hit);
+        }
+    }
+
+    @Benchmark public BulkRequest build() {
+        BulkRequest bulk = new BulkRequest();
+        for (MySearchHit hit : page) {
+            bulk.add(ReIndexAction.createIndexRequest(hit, "tweets", "tweet", true));
+        }
+        return bulk;
+    }
+
+    @Benchmark public int buildAndSerialize() throws IOException {
+        BytesStreamOutput out = new BytesStreamOutput();
+        build().writeTo(out);
+        return out.size();
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ *  Copyright 2026 the Reindex Plugin contributors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.pannous.es.reindex;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.ShardSearchFailure;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.text.StringText;
+import org.elasticsearch.search.SearchHitField;
+import org.elasticsearch.search.internal.InternalSearchHit;
+import org.elasticsearch.search.internal.InternalSearchHits;
+import org.elasticsearch.search.internal.InternalSearchResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Iterates the hits of one page via MySearchResponseES.hits() like the
+ * reindex loop does for the same cluster.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EsHitsBenchmark {
+
+    @Param({"1000"})
+    int hits;
+    MySearchResponseES rsp;
+
+    @Setup public void setUp() {
+        byte[][] sources = BenchmarkData.sources(hits);
+        InternalSearchHit[] arr = new InternalSearchHit[hits];
+        for (int i = 0; i < hits; i++) {
+            arr[i] = new InternalSearchHit(i, BenchmarkData.id(i), new StringText("tweet"),
+                    new BytesArray(sources[i]), Collections.<String, SearchHitField>emptyMap());
+            arr[i].version(1);
+        }
+        InternalSearchResponse internal = new InternalSearchResponse(
+                new InternalSearchHits(arr, 1000000, 0), null, null, false);
+        SearchResponse sr = new SearchResponse(internal, "scroll", 5, 5, 12, new ShardSearchFailure[0]);
+        // no client as doScoll is not called
+        rsp = new MySearchResponseES(null, sr, 1);
+    }
+
+    @Benchmark public void iterate(Blackhole bh) {
+        for (MySearchHit hit : rsp.hits().getHits()) {
+            bh.consume(hit.id());
+            bh.consume(hit.version());
+            bh.consume(hit.sourceRef());
+        }
+    }
+}
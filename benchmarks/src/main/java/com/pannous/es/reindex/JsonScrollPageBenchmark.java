@@ -0,0 +1,63 @@
+/*
+ *  Copyright 2026 the Reindex Plugin contributors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.pannous.es.reindex;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Parses a recorded scroll page like MySearchResponseJson.doScoll does after
+ * the page was read from the connection.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonScrollPageBenchmark {
+
+    @Param({"100", "1000"})
+    int hits;
+    byte[] page;
+    MySearchResponseJson rsp;
+
+    @Setup public void setUp() {
+        page = BenchmarkData.scrollPage(hits);
+        // only the parser is used, nothing is requested
+        rsp = new MySearchResponseJson("localhost", 9200, "", hits, true, 1);
+    }
+
+    @Benchmark public void parsePage(Blackhole bh) throws IOException {
+        bh.consume(rsp.parsePage(page, page.length));
+        for (MySearchHit hit : rsp.hits().getHits()) {
+            bh.consume(hit.id());
+            bh.consume(hit.sourceRef());
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ *  Copyright 2026 the Reindex Plugin contributors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.pannous.es.reindex;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.TimeUnit;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The parse, modify and serialize cycle of ExampleUsage.RewriteSearchHit for
+ * one page compared to the streaming FieldTransform.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RewriteSearchHitBenchmark {
+
+    @Param({"1000"})
+    int hits;
+    byte[][] sources;
+    FieldTransform transform;
+
+    @Setup public void setUp() {
+        sources = BenchmarkData.sources(hits);
+        transform = new FieldTransform().set("lang", "en");
+    }
+
+    @Benchmark public void rewrite(Blackhole bh) throws UnsupportedEncodingException {
+        for (int i = 0; i < sources.length; i++) {
+            ExampleUsage.RewriteSearchHit hit = new ExampleUsage.RewriteSearchHit(BenchmarkData.id(i), 1,
+                    new String(sources[i], "UTF-8"));
+            if (hit.get("lang").equals("de"))
+                hit.put("lang", "en");
+            bh.consume(hit.sourceRef());
+        }
+    }
+
+    @Benchmark public void fieldTransform(Blackhole bh) throws IOException {
+        for (int i = 0; i < sources.length; i++) {
+            bh.consume(transform.transform(new BytesArray(sources[i])));
+        }
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ *  Copyright 2026 the Reindex Plugin contributors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.pannous.es.reindex;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.io.FileSystemUtils;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.node.Node;
+import org.elasticsearch.node.NodeBuilder;
+import org.json.JSONObject;
+
+/**
+ * Macro benchmark: generates a synthetic corpus into an embedded node and
+ * reindexes it via the REST endpoint for every combination of hitsPerPage,
+ * parallelism and source (the local client, the JSON reader over HTTP or a
+ * transport client).
+ * Prints a JSON report with docs/s and MB/s per run. Runs offline, all data
+ * is written into a temporary directory.
+ *
+ * Usage: java -cp target/benchmarks.jar com.pannous.es.reindex.ThroughputBenchmark
+ * docs=100000 minSize=200 maxSize=5000 fields=10 shards=4 hitsPerPage=100,1000
+ * parallelism=1,4 sources=local,json,transport repeat=3 out=report.json
+ */
+public class ThroughputBenchmark {
+
+    private static final String SOURCE = "bench_source";
+    private static final String TARGET = "bench_target";
+    private static final String TYPE = "doc";
+    private final Map<String, String> args;
+    private final int httpPort;
+    private final int transportPort;
+    private Node node;
+    private Client client;
+    private long corpusBytes;
+
+    public static void main(String[] strs) throws Exception {
+        Map<String, String> args = new LinkedHashMap<String, String>();
+        for (String str : strs) {
+            int index = str.indexOf('=');
+            if (index < 0)
+                throw new IllegalArgumentException("arguments have to be key=value but was " + str);
+            args.put(str.substring(0, index), str.substring(index + 1));
+        }
+        JSONObject report = new ThroughputBenchmark(args).run();
+        String out = args.get("out");
+        if (out == null) {
+            System.out.println(report.toString(2));
+        } else {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(out), "UTF-8");
+            try {
+                writer.write(report.toString(2));
+            } finally {
+                writer.close();
+            }
+            System.out.println("report written to " + out);
+        }
+    }
+
+    public ThroughputBenchmark(Map<String, String> args) {
+        this.args = args;
+        this.httpPort = getInt("httpPort", 9250);
+        this.transportPort = getInt("transportPort", 9350);
+    }
+
+    public JSONObject run() throws Exception {
+        File dir = File.createTempFile("reindex-benchmark", "");
+        dir.delete();
+        node = NodeBuilder.nodeBuilder().settings(ImmutableSettings.settingsBuilder()
+                .put("cluster.name", "reindex-benchmark")
+                .put("discovery.zen.ping.multicast.enabled", false)
+                .put("network.host", "127.0.0.1")
+                .put("transport.tcp.port", transportPort)
+                .put("path.data", new File(dir, "data").getAbsolutePath())
+                .put("path.logs", new File(dir, "logs").getAbsolutePath())
+                .put("path.work", new File(dir, "work").getAbsolutePath())
+                .put("gateway.type", "none")
+                .put("http.port", httpPort)
+                .put("index.number_of_replicas", 0)
+                .put("index.number_of_shards", getInt("shards", 4))).node();
+        client = node.client();
+        try {
+            JSONObject report = new JSONObject();
+            report.put("corpus", generateCorpus());
+            report.put("java", System.getProperty("java.version"));
+            report.put("processors", Runtime.getRuntime().availableProcessors());
+            List<JSONObject> runs = new ArrayList<JSONObject>();
+            int repeat = getInt("repeat", 1);
+            boolean warmup = true;
+            for (String source : get("sources", "local,json,transport").split(",")) {
+                for (String hitsPerPage : get("hitsPerPage", "100,1000").split(",")) {
+                    for (String parallelism : get("parallelism", "1,4").split(",")) {
+                        if (warmup) {
+                            reindex(source, Integer.parseInt(hitsPerPage), Integer.parseInt(parallelism));
+                            warmup = false;
+                        }
+                        for (int i = 0; i < repeat; i++) {
+                            runs.add(reindex(source, Integer.parseInt(hitsPerPage), Integer.parseInt(parallelism)));
+                        }
+                    }
+                }
+            }
+            report.put("runs", runs);
+            return report;
+        } finally {
+            client.close();
+            node.close();
+            FileSystemUtils.deleteRecursively(dir);
+        }
+    }
+
+    /**
+     * Indexes docs documents with the specified number of fields. The sizes
+     * are log-uniformly distributed between minSize and maxSize, so small
+     * documents are more common like in most real indices.
+     */
+    JSONObject generateCorpus() throws Exception {
+        int docs = getInt("docs", 100000);
+        int fields = Math.max(1, getInt("fields", 10));
+        int minSize = getInt("minSize", 200);
+        int maxSize = Math.max(minSize, getInt("maxSize", 5000));
+        Random rand = new Random(getInt("seed", 1));
+        long start = System.currentTimeMillis();
+        BulkRequestBuilder bulk = client.prepareBulk();
+        for (int i = 0; i < docs; i++) {
+            int size = (int) Math.round(minSize * Math.pow((double) maxSize / minSize, rand.nextDouble()));
+            XContentBuilder b = XContentFactory.jsonBuilder().startObject();
+            b.field("created_at", 1360000000000L + i);
+            b.field("count", rand.nextInt(1000));
+            int fieldSize = size / fields;
+            for (int f = 0; f < fields; f++) {
+                b.field("field" + f, text(rand, fieldSize));
+            }
+            b.endObject();
+            corpusBytes += b.bytes().length();
+            bulk.add(client.prepareIndex(SOURCE, TYPE, Integer.toString(i)).setSource(b));
+            if (bulk.numberOfActions() >= 1000 || i + 1 == docs) {
+                BulkResponse rsp = bulk.execute().actionGet();
+                if (rsp.hasFailures())
+                    throw new IllegalStateException(rsp.buildFailureMessage());
+                bulk = client.prepareBulk();
+            }
+        }
+        client.admin().indices().refresh(new RefreshRequest(SOURCE)).actionGet();
+        JSONObject corpus = new JSONObject();
+        corpus.put("docs", docs);
+        corpus.put("fields", fields);
+        corpus.put("min_size", minSize);
+        corpus.put("max_size", maxSize);
+        corpus.put("bytes", corpusBytes);
+        corpus.put("shards", getInt("shards", 4));
+        corpus.put("indexing_in_millis", System.currentTimeMillis() - start);
+        return corpus;
+    }
+
+    static String text(Random rand, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        while (sb.length() < length) {
+            if (sb.length() > 0)
+                sb.append(' ');
+            int wordLength = 2 + rand.nextInt(9);
+            for (int i = 0; i < wordLength; i++) {
+                sb.append((char) ('a' + rand.nextInt(26)));
+            }
+        }
+        return sb.toString();
+    }
+
+    JSONObject reindex(String source, int hitsPerPage, int parallelism) throws Exception {
+        if (client.admin().indices().prepareExists(TARGET).execute().actionGet().isExists())
+            client.admin().indices().delete(new DeleteIndexRequest(TARGET)).actionGet();
+        client.admin().indices().prepareCreate(TARGET).execute().actionGet();
+        String url = "http://localhost:" + httpPort + "/" + TARGET + "/" + TYPE + "/_reindex?searchIndex=" + SOURCE
+                + "&hitsPerPage=" + hitsPerPage + "&parallelism=" + parallelism;
+        if ("json".equals(source))
+            // any other host than localhost:9200 is requested via HTTP
+            url += "&searchHost=127.0.0.1&searchPort=" + httpPort;
+        else if ("transport".equals(source))
+            url += "&searchHost=127.0.0.1&searchPort=" + transportPort + "&clusterName=reindex-benchmark";
+        else if (!"local".equals(source))
+            throw new IllegalArgumentException("source has to be local, json or transport but was " + source);
+
+        // polls the status instead of waiting, so no HTTP worker of the node is occupied meanwhile
+        DefaultHttpClient http = new DefaultHttpClient();
+        JSONObject job;
+        try {
+            job = request(http, new HttpPut(url));
+            String status = "http://localhost:" + httpPort + "/_reindex/" + job.getString("id");
+            while (!isFinished(job.optString("state"))) {
+                Thread.sleep(100);
+                job = request(http, new HttpGet(status));
+            }
+        } finally {
+            http.getConnectionManager().shutdown();
+        }
+        if (!"done".equals(job.optString("state")))
+            throw new IllegalStateException("reindex failed " + job);
+
+        long millis = Math.max(1, job.getLong("running_in_millis"));
+        long docs = job.getLong("collected");
+        JSONObject run = new JSONObject();
+        run.put("source", source);
+        run.put("hits_per_page", hitsPerPage);
+        run.put("parallelism", parallelism);
+        run.put("docs", docs);
+        run.put("failed", job.getLong("failed"));
+        run.put("millis", millis);
+        run.put("docs_per_second", docs * 1000 / millis);
+        run.put("mb_per_second", (float) corpusBytes * 1000 / millis / (1 << 20));
+        run.put("stats", job.getJSONObject("stats"));
+        System.err.println(source + " hitsPerPage=" + hitsPerPage + " parallelism=" + parallelism
+                + " " + run.get("docs_per_second") + " docs/s " + run.get("mb_per_second") + " MB/s");
+        return run;
+    }
+
+    static JSONObject request(DefaultHttpClient http, HttpUriRequest req) throws Exception {
+        HttpResponse rsp = http.execute(req);
+        String body = EntityUtils.toString(rsp.getEntity(), "UTF-8");
+        if (rsp.getStatusLine().getStatusCode() != 200)
+            throw new IllegalStateException("reindex request failed " + rsp.getStatusLine() + " " + body);
+        return new JSONObject(body);
+    }
+
+    static boolean isFinished(String state) {
+        return "done".equals(state) || "failed".equals(state) || "cancelled".equals(state);
+    }
+
+    String get(String key, String defaultValue) {
+        String str = args.get(key);
+        return str == null ? defaultValue : str;
+    }
+
+    int getInt(String key, int defaultValue) {
+        return Integer.parseInt(get(key, Integer.toString(defaultValue)));
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ *  Copyright 2026 the Reindex Plugin contributors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.pannous.es.reindex;
+
+/**
+ * Controls the number of documents per bulk request from the observed bulk
+ * latency: grows slowly while the latency is below the target and halves on
+ * latency spikes or rejected documents. After rejections it additionally
+ * requests a growing pause before the next page. Thread safe so that all
+ * readers of one job share the same view of the target cluster.
+ */
+public class AdaptiveBulkSize {
+
+    private final int minSize;
+    private final int maxSize;
+    private final long targetMillis;
+    private int size;
+    private long pauseMillis;
+
+    public AdaptiveBulkSize(int initialSize, int minSize, int maxSize, long targetMillis) {
+        if (minSize < 1 || maxSize < minSize)
+            throw new IllegalArgumentException("invalid bulk size range " + minSize + "-" + maxSize);
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.targetMillis = targetMillis;
+        this.size = Math.max(minSize, Math.min(maxSize, initialSize));
+    }
+
+    /**
+     * @return the number of documents the next bulk request should contain
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return the time to wait before the next page is fed or 0
+     */
+    public synchronized long pauseMillis() {
+        return pauseMillis;
+    }
+
+    /**
+     * Reports the result of one bulk request.
+     */
+    public synchronized void update(int actions, long tookMillis, int rejected) {
+        if (rejected > 0) {
+            size = Math.max(minSize, size / 2);
+            pauseMillis = Math.min(10000, Math.max(100, pauseMillis * 2));
+            return;
+        }
+        pauseMillis = 0;
+        if (tookMillis > 2 * targetMillis)
+            size = Math.max(minSize, size / 2);
+        else if (tookMillis > targetMillis)
+            size = Math.max(minSize, size - Math.max(1, size / 10));
+        else if (actions >= size)
+            // only grow if the bulk was really full
+            size = Math.min(maxSize, size + Math.max(1, size / 10));
+    }
+
+    @Override public String toString() {
+        return "bulk size " + size() + " target " + targetMillis + "ms";
+    }
+}
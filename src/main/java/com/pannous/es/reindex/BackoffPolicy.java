@@ -0,0 +1,60 @@
+/*
+ *  Copyright 2026 the Reindex Plugin contributors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.pannous.es.reindex;
+
+import java.util.Random;
+
+/**
+ * Exponential backoff with jitter for retrying failed bulk items. The delay
+ * of retry n is a random value between the half and the full of
+ * initialMillis * 2^n, capped at maxMillis, so that the readers of a job do
+ * not hit the target cluster again at the same time.
+ */
+public class BackoffPolicy {
+
+    private final int maxRetries;
+    private final long initialMillis;
+    private final long maxMillis;
+    private final Random random = new Random();
+
+    public BackoffPolicy(int maxRetries, long initialMillis, long maxMillis) {
+        this.maxRetries = Math.max(0, maxRetries);
+        this.initialMillis = Math.max(1, initialMillis);
+        this.maxMillis = Math.max(this.initialMillis, maxMillis);
+    }
+
+    /**
+     * @return how often one item is retried at most
+     */
+    public int maxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * @param retry starting from 0 for the first retry
+     */
+    public long delayMillis(int retry) {
+        long base = maxMillis;
+        if (retry < 30)
+            base = Math.min(maxMillis, initialMillis << retry);
+        long half = base / 2;
+        return base - half + random.nextInt((int) Math.min(Integer.MAX_VALUE - 1, half) + 1);
+    }
+
+    @Override public String toString() {
+        return "retries " + maxRetries + " backoff " + initialMillis + "-" + maxMillis + "ms";
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ *  Copyright 2026 the Reindex Plugin contributors
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.pannous.es.reindex;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * Recycles the arrays which hold the scroll pages of one job. Without it
+ * every page of a few megabytes is a new array which lives until its last
+ * bulk request is finished, long enough to be copied by young collections
+ * and promoted. The arrays are pooled in power of two size classes (at
+ * least 64KB) and the capacity caps the memory of all of them, free or in
+ * use. Free arrays of other size classes are dropped to make room, and a
+ * reader waits until arrays are released if the pages in use fill the
+ * pool. Only a page which does not fit even into the empty pool is
+ * allocated beyond it. Thread safe.
+ */
+public class BufferPool implements ToXContent {
+
+    private static final int MIN_SIZE = 64 * 1024;
+    private final long capacity;
+    private final long maxWaitMillis;
+    private final Map<Integer, ArrayDeque<byte[]>> free = new HashMap<Integer, ArrayDeque<byte[]>>();
+    private long pooledBytes;
+    private long inUseBytes;
+    private long peakInUseBytes;
+    private long recycled;
+    private long unpooled;
+    private long waits;
+
+    /**
+     * @param capacity the maximum number of bytes of all arrays, 0 disables
+     * pooling and the limit
+     */
+    public BufferPool(long capacity) {
+        this(capacity, 5 * 60 * 1000);
+    }
+
+    /**
+     * @param maxWaitMillis how long a reader waits for released arrays
+     * before it fails
+     */
+    public BufferPool(long capacity, long maxWaitMillis) {
+        this.capacity = capacity;
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    /**
+     * Waits until the pool has room for the specified size.
+     *
+     * @return a buffer of at least the specified size with one reference
+     * @throws IllegalStateException if nothing was released within the
+     * maximum wait time
+     */
+    public Buffer acquire(int size) {
+        return acquire(size, 0);
+    }
+
+    /**
+     * @return a buffer of the specified size with the first length bytes of
+     * the specified one, which is released. Its size counts as free while
+     * waiting, so a reader never waits for its own page.
+     */
+    public Buffer grow(Buffer buffer, int length, int size) {
+        Buffer larger = acquire(size, buffer.array.length);
+        System.arraycopy(buffer.array, 0, larger.array, 0, length);
+        buffer.release();
+        return larger;
+    }
+
+    /**
+     * @return true if acquiring the specified size would wait until arrays in
+     * use are released. A reader which holds such arrays itself must hand
+     * them on before, or it waits for itself.
+     */
+    public synchronized boolean mustWait(int size) {
+        if (capacity == 0 || inUseBytes == 0)
+            return false;
+        long freeBytes = 0;
+        for (ArrayDeque<byte[]> arrays : free.values()) {
+            for (byte[] array : arrays) {
+                freeBytes += array.length;
+            }
+        }
+        // free arrays of other size classes are dropped to make room
+        return pooledBytes - freeBytes + sizeClass(size) > capacity;
+    }
+
+    private static int sizeClass(int size) {
+        return Math.max(MIN_SIZE, Integer.highestOneBit(Math.max(1, size - 1)) << 1);
+    }
+
+    private Buffer acquire(int size, int replacedBytes) {
+        int sizeClass = sizeClass(size);
+        boolean pooled = true;
+        synchronized (this) {
+            long deadline = 0;
+            while (true) {
+                ArrayDeque<byte[]> arrays = free.get(sizeClass);
+                if (arrays != null && !arrays.isEmpty()) {
+                    recycled++;
+                    inUseBytes += sizeClass;
+                    peakInUseBytes = Math.max(peakInUseBytes, inUseBytes);
+                    return new Buffer(this, arrays.pop(), true);
+                }
+                if (pooledBytes + sizeClass > capacity)
+                    dropFree(pooledBytes + sizeClass - capacity);
+                if (pooledBytes + sizeClass <= capacity) {
+                    pooledBytes += sizeClass;
+                    break;
+                }
+                // without pooling or if no other page is in use waiting would not help
+                if (capacity == 0 || inUseBytes <= replacedBytes) {
+                    pooled = false;
+                    unpooled++;
+                    break;
+                }
+                long now = System.currentTimeMillis();
+                if (deadline == 0) {
+                    deadline = now + maxWaitMillis;
+                    waits++;
+                } else if (now >= deadline)
+                    throw new IllegalStateException("Waited " + maxWaitMillis + "ms for " + size
+                            + " bytes but all " + capacity + " bytes of the buffer pool are in use. Increase"
+                            + " bufferPoolSizeInMB or reduce hitsPerPage, parallelism, prefetchPages,"
+                            + " transformThreads or concurrentBulks");
+                try {
+                    wait(Math.max(1, deadline - now));
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while waiting for the buffer pool", ex);
+                }
+            }
+            inUseBytes += pooled ? sizeClass : size;
+            peakInUseBytes = Math.max(peakInUseBytes, inUseBytes);
+        }
+        // allocate outside of the lock
+        return new Buffer(this, new byte[pooled ? sizeClass : size], pooled);
+    }
+
+    /**
+     * Drops free arrays until the specified number of bytes is dropped or no
+     * free array is left.
+     */
+    private void dropFree(long bytes) {
+        for (ArrayDeque<byte[]> arrays : free.values()) {
+            while (bytes > 0 && !arrays.isEmpty()) {
+                int length = arrays.pop().length;
+                pooledBytes -= length;
+                bytes -= length;
+            }
+        }
+    }
+
+    private synchronized void release(Buffer buffer) {
+        inUseBytes -= buffer.array.length;
+        notifyAll();
+        if (!buffer.pooled)
+            return;
+        ArrayDeque<byte[]> arrays = free.get(buffer.array.length);
+        if (arrays == null)
+            free.put(buffer.array.length, arrays = new ArrayDeque<byte[]>());
+        arrays.push(buffer.array);
+    }
+
+    public long capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the bytes of all arrays owned by the pool, free or in use
+     */
+    public synchronized long pooledBytes() {
+        return pooledBytes;
+    }
+
+    /**
+     * @return the bytes of all arrays which are in use, pooled or not
+     */
+    public synchronized long inUseBytes() {
+        return inUseBytes;
+    }
+
+    public synchronized long peakInUseBytes() {
+        return peakInUseBytes;
+    }
+
+    /**
+     * @return the number of arrays which were reused
+     */
+    public synchronized long recycled() {
+        return recycled;
+    }
+
+    /**
+     * @return the number of arrays which were allocated beyond the pool, as
+     * pooling was disabled or they were larger than the empty pool
+     */
+    public synchronized long unpooled() {
+        return unpooled;
+    }
+
+    /**
+     * @return how often a reader waited as the pool was full
+     */
+    public synchronized long waits() {
+        return waits;
+    }
+
+    @Override public synchronized XContentBuilder toXContent(XContentBuilder builder, Params params)
+            throws IOException {
+        builder.field("capacity_in_bytes", capacity);
+        builder.field("pooled_in_bytes", pooledBytes);
+        builder.field("in_use_in_bytes", inUseBytes);
+        builder.field("peak_in_use_in_bytes", peakInUseBytes);
+        builder.field("recycled", recycled);
+        builder.field("unpooled", unpooled);
+        builder.field("waits", waits);
+        return builder;
+    }
+
+    /**
+     * An array of the pool which is returned when the last reference is
+     * released, e.g. by the reader and by every bulk request which contains
+     * a slice of it.
+     */
+    public static class Buffer {
+
+        private final BufferPool pool;
+        private final boolean pooled;
+        private final AtomicInteger refs = new AtomicInteger(1);
+        private final byte[] array;
+
+        Buffer(BufferPool pool, byte[] array, boolean pooled) {
+            this.pool = pool;
+            this.array = array;
+            this.pooled = pooled;
+        }
+
+        public byte[] array() {
+            return array;
+        }
+
+        public BufferPool pool() {
+            return pool;
+        }
+
+        public void retain() {
+            refs.incrementAndGet();
+        }
+
+        public void release() {
+            int left = refs.decrementAndGet();
+            if (left == 0)
+                pool.release(this);
+            else if (left < 0)
+                throw new IllegalStateException("buffer released too often");
+        }
+    }
+}
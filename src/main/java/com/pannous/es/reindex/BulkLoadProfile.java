@@ -0,0 +1,181 @@
+/*
+ *  Copyright 2026 the Reindex Plugin contributors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.pannous.es.reindex;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import org.elasticsearch.action.admin.cluster.health.ClusterHealthRequest;
+import org.elasticsearch.action.admin.cluster.health.ClusterHealthResponse;
+import org.elasticsearch.action.admin.cluster.state.ClusterStateRequest;
+import org.elasticsearch.action.admin.indices.optimize.OptimizeRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+
+/**
+ * Switches the target index into a bulk load mode: no refresh, no replicas,
+ * rare translog flushes and less merging. restore sets the original values
+ * again, after that the index can be optimized and the caller can wait until
+ * the replicas are recovered (throttled via indices.recovery.max_bytes_per_sec).
+ * The original values are kept in a file until they are restored, so a run
+ * which is resumed after a restart does not take the values of the profile
+ * as the original ones.
+ */
+public class BulkLoadProfile {
+
+    private static final ESLogger logger = Loggers.getLogger(BulkLoadProfile.class);
+    // the values of the profile and the defaults if the index has no explicit value
+    static final String[][] SETTINGS = {
+        {"index.refresh_interval", "-1", "1s"},
+        {"index.number_of_replicas", "0", "1"},
+        {"index.translog.flush_threshold_ops", "100000", "5000"},
+        {"index.translog.flush_threshold_size", "1gb", "200mb"},
+        {"index.merge.policy.segments_per_tier", "30", "10"}};
+    private final Client client;
+    private final String index;
+    private final File file;
+    private Map<String, String> original;
+
+    /**
+     * Keeps the original settings in memory only.
+     */
+    public BulkLoadProfile(Client client, String index) {
+        this(client, index, null);
+    }
+
+    /**
+     * @param file keeps the original settings until they are restored
+     */
+    public BulkLoadProfile(Client client, String index, File file) {
+        this.client = client;
+        this.index = index;
+        this.file = file;
+    }
+
+    /**
+     * Remembers the current settings of the index and applies the profile.
+     * If the file of an interrupted run still exists its settings are the
+     * original ones.
+     */
+    public synchronized void apply() {
+        original = load();
+        if (original == null) {
+            Settings current = client.admin().cluster().state(new ClusterStateRequest()).actionGet().
+                    getState().metaData().index(index).settings();
+            original = new LinkedHashMap<String, String>();
+            for (String[] setting : SETTINGS) {
+                original.put(setting[0], current.get(setting[0], setting[2]));
+            }
+            store(original);
+        } else
+            logger.info("resume bulk load profile of " + index + " from " + file);
+        ImmutableSettings.Builder profile = ImmutableSettings.settingsBuilder();
+        for (String[] setting : SETTINGS) {
+            profile.put(setting[0], setting[1]);
+        }
+        logger.info("apply bulk load profile to " + index + ", original settings " + original);
+        update(profile.build());
+    }
+
+    /**
+     * Restores the settings from before apply. Does nothing if the profile
+     * is not applied.
+     */
+    public synchronized void restore() {
+        if (original == null)
+            return;
+        logger.info("restore settings of " + index + " to " + original);
+        update(ImmutableSettings.settingsBuilder().put(original).build());
+        original = null;
+        if (file != null && !file.delete() && file.exists())
+            logger.warn("Cannot delete " + file + ", delete it before the next bulk load of " + index);
+    }
+
+    private Map<String, String> load() {
+        if (file == null || !file.exists())
+            return null;
+        Properties props = new Properties();
+        try {
+            FileInputStream is = new FileInputStream(file);
+            try {
+                props.load(is);
+            } finally {
+                is.close();
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException("Cannot read original settings of " + index + " from " + file, ex);
+        }
+        Map<String, String> settings = new LinkedHashMap<String, String>();
+        for (String[] setting : SETTINGS) {
+            settings.put(setting[0], props.getProperty(setting[0], setting[2]));
+        }
+        return settings;
+    }
+
+    private void store(Map<String, String> settings) {
+        if (file == null)
+            return;
+        Properties props = new Properties();
+        props.putAll(settings);
+        try {
+            file.getParentFile().mkdirs();
+            FileOutputStream os = new FileOutputStream(file);
+            try {
+                props.store(os, "original settings of " + index);
+                os.getFD().sync();
+            } finally {
+                os.close();
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException("Cannot write original settings of " + index + " to " + file, ex);
+        }
+    }
+
+    /**
+     * Merges the index down to the specified number of segments and waits
+     * until the merge is finished.
+     */
+    public void optimize(int maxNumSegments) {
+        logger.info("optimize " + index + " to " + maxNumSegments + " segments");
+        client.admin().indices().optimize(new OptimizeRequest(index).maxNumSegments(maxNumSegments).
+                waitForMerge(true)).actionGet();
+    }
+
+    /**
+     * Waits until all replicas of the index are recovered.
+     *
+     * @return false if the timeout was reached before
+     */
+    public boolean waitForGreen(TimeValue timeout) {
+        ClusterHealthResponse rsp = client.admin().cluster().health(new ClusterHealthRequest(index).
+                waitForGreenStatus().timeout(timeout)).actionGet();
+        if (rsp.isTimedOut())
+            logger.warn("index " + index + " is still " + rsp.getStatus() + " after " + timeout);
+        return !rsp.isTimedOut();
+    }
+
+    private void update(Settings settings) {
+        client.admin().indices().prepareUpdateSettings(index).setSettings(settings).execute().actionGet();
+    }
+}
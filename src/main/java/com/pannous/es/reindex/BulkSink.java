@@ -0,0 +1,42 @@
+/*
+ *  Copyright 2026 the Reindex Plugin contributors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.pannous.es.reindex;
+
+import java.util.List;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+
+/**
+ * Destination of the bulk requests of a reindex job, e.g. the cluster of
+ * this node or a remote cluster via HTTP.
+ */
+public interface BulkSink {
+
+    /**
+     * Executes the specified index requests as one bulk request. Throws an
+     * EsRejectedExecutionException if the whole request was rejected.
+     *
+     * @return the failure message for every request or null where it
+     * succeeded
+     */
+    String[] execute(List<ActionRequest<?>> requests);
+
+    /**
+     * Executes the specified index requests asynchronously. The listener
+     * receives the same result as from execute.
+     */
+    void execute(List<ActionRequest<?>> requests, ActionListener<String[]> listener);
+}
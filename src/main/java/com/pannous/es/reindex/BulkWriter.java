@@ -0,0 +1,291 @@
+/*
+ *  Copyright 2026 the Reindex Plugin contributors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.pannous.es.reindex;
+
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import org.apache.http.NoHttpResponseException;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.UnavailableShardsException;
+import org.elasticsearch.client.transport.NoNodeAvailableException;
+import org.elasticsearch.common.StopWatch;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.node.NodeClosedException;
+import org.elasticsearch.transport.ConnectTransportException;
+import org.elasticsearch.transport.ReceiveTimeoutTransportException;
+
+/**
+ * Feeds the bulk requests of one reader into a sink with up to
+ * concurrentBulks of the job in flight. The caller blocks while all of them
+ * are outstanding. The responses are evaluated by the calling thread on the
+ * next execute or flush, and failed items are retried there synchronously
+ * with the backoff policy of the job, so the listener threads of the client
+ * never wait. Whole requests which fail transiently, e.g. as a node is
+ * restarting, are retried the same way. The buffers of a request are
+ * released when it is finished.
+ */
+public class BulkWriter {
+
+    private static final ESLogger logger = Loggers.getLogger(BulkWriter.class);
+    private final BulkSink sink;
+    private final ReIndexJob job;
+    private final int concurrency;
+    private final Semaphore inFlight;
+    private final Queue<Result> completed = new ConcurrentLinkedQueue<Result>();
+    private final List<Integer> failed = new ArrayList<Integer>();
+
+    public BulkWriter(BulkSink sink, ReIndexJob job) {
+        this.sink = sink;
+        this.job = job;
+        this.concurrency = Math.max(1, job.concurrentBulks());
+        this.inFlight = new Semaphore(concurrency);
+    }
+
+    /**
+     * Executes the specified requests which get the positions starting from
+     * offset.
+     */
+    public void execute(List<ActionRequest<?>> requests, int offset) {
+        execute(requests, offset, Collections.<BufferPool.Buffer>emptyList());
+    }
+
+    /**
+     * Executes the specified requests and releases the specified buffers,
+     * which the sources of the requests reference, when they are finished.
+     */
+    public void execute(final List<ActionRequest<?>> requests, int offset, final List<BufferPool.Buffer> buffers) {
+        final List<Integer> positions = new ArrayList<Integer>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            positions.add(offset + i);
+        }
+        if (concurrency == 1) {
+            complete(executeNow(requests, positions, 0, buffers));
+            return;
+        }
+
+        evaluateCompleted();
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            failed.addAll(positions);
+            release(buffers);
+            return;
+        }
+        final StopWatch bulkWatch = new StopWatch().start();
+        try {
+            sink.execute(requests, new ActionListener<String[]>() {
+                @Override public void onResponse(String[] failures) {
+                    bulkWatch.stop();
+                    completed.add(new Result(requests, positions, 0, buffers, failures, null,
+                            bulkWatch.totalTime().micros()));
+                    inFlight.release();
+                }
+
+                @Override public void onFailure(Throwable ex) {
+                    bulkWatch.stop();
+                    completed.add(new Result(requests, positions, 0, buffers, null, ex,
+                            bulkWatch.totalTime().micros()));
+                    inFlight.release();
+                }
+            });
+        } catch (RuntimeException ex) {
+            // evaluated like a failure of the listener
+            completed.add(new Result(requests, positions, 0, buffers, null, ex, 0));
+            inFlight.release();
+        }
+    }
+
+    /**
+     * Waits until all requests in flight are finished and their failed items
+     * are retried.
+     */
+    public void flush() {
+        if (concurrency > 1) {
+            inFlight.acquireUninterruptibly(concurrency);
+            inFlight.release(concurrency);
+        }
+        evaluateCompleted();
+    }
+
+    /**
+     * @return the number of bulk requests which are not finished yet
+     */
+    public int inFlight() {
+        return concurrency == 1 ? 0 : concurrency - inFlight.availablePermits();
+    }
+
+    /**
+     * @return the positions of the items which still failed after all
+     * retries
+     */
+    public List<Integer> failed() {
+        return failed;
+    }
+
+    private void evaluateCompleted() {
+        Result result;
+        while ((result = completed.poll()) != null) {
+            complete(result);
+        }
+    }
+
+    private Result executeNow(List<ActionRequest<?>> requests, List<Integer> positions, int retry,
+            List<BufferPool.Buffer> buffers) {
+        StopWatch bulkWatch = new StopWatch().start();
+        String[] failures = null;
+        Throwable error = null;
+        try {
+            failures = sink.execute(requests);
+        } catch (RuntimeException ex) {
+            error = ex;
+        }
+        bulkWatch.stop();
+        return new Result(requests, positions, retry, buffers, failures, error, bulkWatch.totalTime().micros());
+    }
+
+    /**
+     * Records the outcome of the specified request and retries its failed
+     * items until they succeed or the retries are exhausted.
+     */
+    private void complete(Result result) {
+        try {
+            retry(result);
+        } finally {
+            release(result.buffers);
+        }
+    }
+
+    private void retry(Result result) {
+        AdaptiveBulkSize bulkSize = job.bulkSize();
+        BackoffPolicy backoff = job.backoff();
+        while (true) {
+            List<ActionRequest<?>> requests = result.requests;
+            List<Integer> positions = result.positions;
+            int rejected = 0;
+            int failedItems = 0;
+            boolean retryAllowed = result.retry < backoff.maxRetries() && !job.isCancelled();
+            List<ActionRequest<?>> retryRequests = new ArrayList<ActionRequest<?>>();
+            List<Integer> retryPositions = new ArrayList<Integer>();
+            if (result.error != null) {
+                boolean isRejected = ExceptionsHelper.unwrapCause(result.error) instanceof EsRejectedExecutionException;
+                if (!isTransient(result.error) || !isRejected && !retryAllowed && !job.isCancelled())
+                    throw new RuntimeException("Bulk request of " + requests.size() + " documents failed after "
+                            + result.retry + " retries", result.error);
+                if (isRejected)
+                    rejected = requests.size();
+                failedItems = requests.size();
+                if (retryAllowed) {
+                    retryRequests.addAll(requests);
+                    retryPositions.addAll(positions);
+                } else
+                    failed.addAll(positions);
+            } else {
+                for (int i = 0; i < requests.size(); i++) {
+                    String failure = result.failures[i];
+                    if (failure == null)
+                        continue;
+                    failedItems++;
+                    if (ReIndexAction.isRejected(failure))
+                        rejected++;
+                    if (retryAllowed && ReIndexAction.isRetryable(failure)) {
+                        retryRequests.add(requests.get(i));
+                        retryPositions.add(positions.get(i));
+                    } else
+                        failed.add(positions.get(i));
+                }
+            }
+            job.stats().bulk(requests.size() - failedItems, result.micros);
+            if (bulkSize != null)
+                bulkSize.update(requests.size(), result.micros / 1000, rejected);
+            if (retryRequests.isEmpty())
+                return;
+
+            job.progress().addRetried(retryRequests.size());
+            job.stats().retried(retryRequests.size());
+            try {
+                Thread.sleep(backoff.delayMillis(result.retry));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                failed.addAll(retryPositions);
+                return;
+            }
+            logger.debug("Retry " + (result.retry + 1) + " of " + retryRequests.size() + " failed documents");
+            result = executeNow(retryRequests, retryPositions, result.retry + 1, result.buffers);
+        }
+    }
+
+    /**
+     * Failures of a whole request which might succeed later: rejected
+     * requests, nodes which are not reachable, restarting or do not answer
+     * in time.
+     */
+    static boolean isTransient(Throwable ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof EsRejectedExecutionException
+                    || cause instanceof NoNodeAvailableException
+                    || cause instanceof ConnectTransportException
+                    || cause instanceof ReceiveTimeoutTransportException
+                    || cause instanceof NodeClosedException
+                    || cause instanceof UnavailableShardsException
+                    || cause instanceof SocketException
+                    || cause instanceof InterruptedIOException
+                    || cause instanceof NoHttpResponseException)
+                return true;
+            if (cause.getCause() == cause)
+                break;
+        }
+        return false;
+    }
+
+    private static void release(List<BufferPool.Buffer> buffers) {
+        for (BufferPool.Buffer buffer : buffers) {
+            buffer.release();
+        }
+    }
+
+    private static class Result {
+
+        final List<ActionRequest<?>> requests;
+        final List<Integer> positions;
+        final int retry;
+        final List<BufferPool.Buffer> buffers;
+        final String[] failures;
+        final Throwable error;
+        final long micros;
+
+        Result(List<ActionRequest<?>> requests, List<Integer> positions, int retry, List<BufferPool.Buffer> buffers,
+                String[] failures, Throwable error, long micros) {
+            this.requests = requests;
+            this.positions = positions;
+            this.retry = retry;
+            this.buffers = buffers;
+            this.failures = failures;
+            this.error = error;
+            this.micros = micros;
+        }
+    }
+}
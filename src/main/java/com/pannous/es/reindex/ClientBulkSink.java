@@ -0,0 +1,71 @@
+/*
+ *  Copyright 2026 the Reindex Plugin contributors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.pannous.es.reindex;
+
+import java.util.List;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.Client;
+
+/**
+ * Writes via the client of this node.
+ */
+public class ClientBulkSink implements BulkSink {
+
+    private final Client client;
+
+    public ClientBulkSink(Client client) {
+        this.client = client;
+    }
+
+    @Override public String[] execute(List<ActionRequest<?>> requests) {
+        return failures(bulk(requests).execute().actionGet());
+    }
+
+    @Override public void execute(List<ActionRequest<?>> requests, final ActionListener<String[]> listener) {
+        bulk(requests).execute(new ActionListener<BulkResponse>() {
+            @Override public void onResponse(BulkResponse rsp) {
+                listener.onResponse(failures(rsp));
+            }
+
+            @Override public void onFailure(Throwable ex) {
+                listener.onFailure(ex);
+            }
+        });
+    }
+
+    private BulkRequestBuilder bulk(List<ActionRequest<?>> requests) {
+        BulkRequestBuilder brb = client.prepareBulk();
+        for (ActionRequest<?> req : requests) {
+            brb.request().add(req);
+        }
+        return brb;
+    }
+
+    private static String[] failures(BulkResponse rsp) {
+        String[] failures = new String[rsp.getItems().length];
+        if (rsp.hasFailures()) {
+            for (BulkItemResponse br : rsp.getItems()) {
+                if (br.isFailed())
+                    failures[br.getItemId()] = br.getFailureMessage();
+            }
+        }
+        return failures;
+    }
+}
@@ -8,6 +8,8 @@ import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.client.transport.TransportClient;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.settings.ImmutableSettings;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.transport.InetSocketTransportAddress;
@@ -167,5 +169,9 @@ public class ExampleUsage {
                 throw new RuntimeException(ex);
             }
         }
+
+        @Override public BytesReference sourceRef() {
+            return new BytesArray(source());
+        }
     }
 }
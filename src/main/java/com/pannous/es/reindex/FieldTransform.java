@@ -0,0 +1,250 @@
+/*
+ *  Copyright 2026 the Reindex Plugin contributors
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.pannous.es.reindex;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+
+/**
+ * Renames, removes, sets and copies top level fields of every document. The
+ * source is rewritten token by token into JSON without building a document
+ * tree, only the values of copied fields and of fields which might get
+ * overwritten by a rename or a copy are buffered. Thread safe.
+ *
+ * Example spec: { "rename" : { "user" : "author" }, "remove" : ["tmp"],
+ * "set" : { "origin" : "import" }, "copy" : { "title" : "title_raw" } }
+ */
+public class FieldTransform implements HitTransform {
+
+    private final Map<String, String> rename = new HashMap<String, String>();
+    private final Set<String> remove = new HashSet<String>();
+    private final Map<String, Object> set = new LinkedHashMap<String, Object>();
+    private final Map<String, List<String>> copy = new HashMap<String, List<String>>();
+    // fields which are written from another field
+    private final Set<String> targets = new HashSet<String>();
+
+    /**
+     * Creates the transform from the specified spec, see the class comment.
+     */
+    @SuppressWarnings("unchecked")
+    public static FieldTransform parse(Map<String, Object> spec) {
+        FieldTransform transform = new FieldTransform();
+        for (Map.Entry<String, Object> e : spec.entrySet()) {
+            Object value = e.getValue();
+            if ("remove".equals(e.getKey())) {
+                Collection<Object> fields = value instanceof Collection
+                        ? (Collection<Object>) value : Collections.singleton(value);
+                for (Object field : fields) {
+                    transform.remove(field.toString());
+                }
+            } else if (!(value instanceof Map))
+                throw new IllegalArgumentException("transform " + e.getKey() + " requires an object but was " + value);
+            else if ("rename".equals(e.getKey())) {
+                for (Map.Entry<String, Object> field : ((Map<String, Object>) value).entrySet()) {
+                    transform.rename(field.getKey(), field.getValue().toString());
+                }
+            } else if ("set".equals(e.getKey())) {
+                for (Map.Entry<String, Object> field : ((Map<String, Object>) value).entrySet()) {
+                    transform.set(field.getKey(), field.getValue());
+                }
+            } else if ("copy".equals(e.getKey())) {
+                for (Map.Entry<String, Object> field : ((Map<String, Object>) value).entrySet()) {
+                    transform.copy(field.getKey(), field.getValue().toString());
+                }
+            } else
+                throw new IllegalArgumentException("unknown transform " + e.getKey()
+                        + ", supported are rename, remove, set and copy");
+        }
+        return transform;
+    }
+
+    public FieldTransform rename(String from, String to) {
+        rename.put(from, to);
+        targets.add(to);
+        return this;
+    }
+
+    public FieldTransform remove(String field) {
+        remove.add(field);
+        return this;
+    }
+
+    /**
+     * Sets the specified field to a constant, an existing value is replaced.
+     */
+    public FieldTransform set(String field, Object value) {
+        set.put(field, value);
+        return this;
+    }
+
+    public FieldTransform copy(String from, String to) {
+        List<String> list = copy.get(from);
+        if (list == null)
+            copy.put(from, list = new ArrayList<String>(1));
+        list.add(to);
+        targets.add(to);
+        return this;
+    }
+
+    /**
+     * @return the transformed hits. Documents which cannot be parsed are
+     * returned unchanged so that they fail in the bulk request.
+     */
+    @Override public MySearchHits transform(MySearchHits hits) {
+        final long total = hits.totalHits();
+        final List<MySearchHit> res = new ArrayList<MySearchHit>();
+        for (MySearchHit hit : hits.getHits()) {
+            try {
+                res.add(new TransformedHit(hit, transform(hit.sourceRef())));
+            } catch (Exception ex) {
+                res.add(hit);
+            }
+        }
+        return new MySearchHits() {
+            @Override public Iterable<MySearchHit> getHits() {
+                return res;
+            }
+
+            @Override public long totalHits() {
+                return total;
+            }
+        };
+    }
+
+    /**
+     * @return the transformed source as JSON
+     */
+    public BytesReference transform(BytesReference source) throws IOException {
+        XContentParser parser = XContentHelper.createParser(source);
+        try {
+            if (parser.nextToken() != XContentParser.Token.START_OBJECT)
+                throw new IOException("source is not an object");
+            XContentBuilder builder = XContentFactory.jsonBuilder().startObject();
+            Set<String> written = targets.isEmpty() ? null : new HashSet<String>();
+            // existing values of target fields, only written if no other field replaced them
+            Map<String, BytesReference> existing = null;
+            while (parser.nextToken() == XContentParser.Token.FIELD_NAME) {
+                String name = parser.currentName();
+                parser.nextToken();
+                String to = rename.get(name);
+                List<String> copies = copy.get(name);
+                if (remove.contains(name)) {
+                    parser.skipChildren();
+                } else if (to == null && copies == null) {
+                    if (set.containsKey(name) || written != null && written.contains(name))
+                        parser.skipChildren();
+                    else if (targets.contains(name)) {
+                        if (existing == null)
+                            existing = new LinkedHashMap<String, BytesReference>();
+                        existing.put(name, copyValue(parser));
+                    } else
+                        builder.field(name).copyCurrentStructure(parser);
+                } else if (copies == null) {
+                    // renamed only, so the value can be streamed
+                    if (!set.containsKey(to) && written.add(to))
+                        builder.field(to).copyCurrentStructure(parser);
+                    else
+                        parser.skipChildren();
+                } else {
+                    BytesReference value = copyValue(parser);
+                    write(builder, to == null ? name : to, value, written);
+                    for (String target : copies) {
+                        write(builder, target, value, written);
+                    }
+                }
+            }
+            if (existing != null) {
+                for (Map.Entry<String, BytesReference> e : existing.entrySet()) {
+                    if (!written.contains(e.getKey()))
+                        writeValue(builder, e.getKey(), e.getValue());
+                }
+            }
+            for (Map.Entry<String, Object> e : set.entrySet()) {
+                builder.field(e.getKey(), e.getValue());
+            }
+            return builder.endObject().bytes();
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Writes the value of a renamed or copied field unless the field is set
+     * to a constant or was already written.
+     */
+    private void write(XContentBuilder builder, String name, BytesReference value, Set<String> written)
+            throws IOException {
+        if (!set.containsKey(name) && written.add(name))
+            writeValue(builder, name, value);
+    }
+
+    private static void writeValue(XContentBuilder builder, String name, BytesReference value)
+            throws IOException {
+        // rawField would be shorter but writes a separator before the first field
+        XContentParser parser = JsonXContent.jsonXContent.createParser(value);
+        try {
+            parser.nextToken();
+            builder.field(name).copyCurrentStructure(parser);
+        } finally {
+            parser.close();
+        }
+    }
+
+    private static BytesReference copyValue(XContentParser parser) throws IOException {
+        return XContentFactory.jsonBuilder().copyCurrentStructure(parser).bytes();
+    }
+
+    static class TransformedHit implements MySearchHit {
+
+        private final MySearchHit hit;
+        private final BytesReference source;
+
+        TransformedHit(MySearchHit hit, BytesReference source) {
+            this.hit = hit;
+            this.source = source;
+        }
+
+        @Override public String id() {
+            return hit.id();
+        }
+
+        @Override public long version() {
+            return hit.version();
+        }
+
+        @Override public byte[] source() {
+            return source.toBytes();
+        }
+
+        @Override public BytesReference sourceRef() {
+            return source;
+        }
+    }
+}
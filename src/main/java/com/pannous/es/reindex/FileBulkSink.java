@@ -0,0 +1,146 @@
+/*
+ *  Copyright 2026 the Reindex Plugin contributors
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.pannous.es.reindex;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.common.compress.Compressor;
+import org.elasticsearch.common.compress.CompressorFactory;
+
+/**
+ * Writes the bulk requests into rolling dump files name.00000.ndjson.lzf,
+ * name.00001.ndjson.lzf etc. Every bulk request becomes one block of
+ * newline delimited action and source lines as accepted by the _bulk API,
+ * compressed with LZF. A block starts with a header of the magic number, the
+ * number of documents and the compressed length, so the blocks can be read
+ * independently and a file can be split at block boundaries, see
+ * MySearchResponseFile.
+ */
+public class FileBulkSink implements BulkSink, Closeable {
+
+    static final int MAGIC = 0x52495844;
+    static final int HEADER_LENGTH = 12;
+    private static final String SUFFIX = ".ndjson.lzf";
+    private final File dir;
+    private final String name;
+    private final long maxFileBytes;
+    private final Compressor compressor = CompressorFactory.compressor("lzf");
+    private FileChannel channel;
+    private int fileNumber;
+    private long fileBytes;
+
+    /**
+     * @param maxFileBytes a new file is started before a file would exceed
+     * this size. Must be below 2GB as MySearchResponseFile maps whole files.
+     */
+    public FileBulkSink(File dir, String name, long maxFileBytes) {
+        if (maxFileBytes <= 0 || maxFileBytes > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("the size of the dump files must be between 0 and 2048MB but was "
+                    + maxFileBytes + " bytes");
+        if (files(dir, name).length > 0)
+            throw new IllegalArgumentException("dump " + name + " already exists in " + dir);
+        if (!dir.exists() && !dir.mkdirs())
+            throw new IllegalStateException("Cannot create directory " + dir);
+        this.dir = dir;
+        this.name = name;
+        this.maxFileBytes = maxFileBytes;
+    }
+
+    /**
+     * @return the files of the specified dump in the order they were written
+     */
+    public static File[] files(File dir, final String name) {
+        File[] files = dir.listFiles(new FilenameFilter() {
+            @Override public boolean accept(File dir, String fileName) {
+                return fileName.startsWith(name + ".") && fileName.endsWith(SUFFIX)
+                        && fileName.substring(name.length() + 1, fileName.length() - SUFFIX.length()).matches("\\d+");
+            }
+        });
+        if (files == null)
+            return new File[0];
+        // the numbers have a fixed width
+        Arrays.sort(files);
+        return files;
+    }
+
+    @Override public String[] execute(List<ActionRequest<?>> requests) {
+        try {
+            ByteArrayOutputStream lines = new ByteArrayOutputStream();
+            for (ActionRequest<?> req : requests) {
+                HttpBulkSink.write((IndexRequest) req, lines);
+            }
+            byte[] compressed = compressor.compress(lines.toByteArray(), 0, lines.size());
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            header.putInt(MAGIC).putInt(requests.size()).putInt(compressed.length).flip();
+            write(header, ByteBuffer.wrap(compressed));
+        } catch (IOException ex) {
+            throw new RuntimeException("Cannot write dump " + name + " into " + dir, ex);
+        }
+        // nothing can fail per document
+        return new String[requests.size()];
+    }
+
+    /**
+     * Writes synchronously, the listener is called before this method
+     * returns.
+     */
+    @Override public void execute(List<ActionRequest<?>> requests, ActionListener<String[]> listener) {
+        String[] failures;
+        try {
+            failures = execute(requests);
+        } catch (Throwable ex) {
+            listener.onFailure(ex);
+            return;
+        }
+        listener.onResponse(failures);
+    }
+
+    private synchronized void write(ByteBuffer header, ByteBuffer block) throws IOException {
+        long length = header.remaining() + block.remaining();
+        if (channel != null && fileBytes + length > maxFileBytes) {
+            channel.close();
+            channel = null;
+            fileNumber++;
+        }
+        if (channel == null) {
+            channel = new FileOutputStream(new File(dir, String.format("%s.%05d%s", name, fileNumber, SUFFIX))).
+                    getChannel();
+            fileBytes = 0;
+        }
+        while (header.hasRemaining() || block.hasRemaining()) {
+            channel.write(new ByteBuffer[]{header, block});
+        }
+        fileBytes += length;
+    }
+
+    @Override public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ *  Copyright 2026 the Reindex Plugin contributors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.pannous.es.reindex;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * Lock free histogram with power of two buckets, e.g. for latencies in
+ * microseconds or queue depths. Percentiles are reported as the upper bound
+ * of the bucket, so they are accurate within a factor of two.
+ */
+public class Histogram {
+
+    private final AtomicLongArray buckets = new AtomicLongArray(64);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long value) {
+        if (value < 0)
+            value = 0;
+        // bucket i holds the values in [2^(i-1), 2^i)
+        buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long tmp;
+        while ((tmp = max.get()) < value && !max.compareAndSet(tmp, value)) {
+        }
+    }
+
+    public long count() {
+        return count.get();
+    }
+
+    public long sum() {
+        return sum.get();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    public double mean() {
+        long c = count();
+        return c == 0 ? 0 : (double) sum() / c;
+    }
+
+    /**
+     * @param p between 0 and 1
+     * @return the upper bound of the bucket which contains the specified
+     * percentile
+     */
+    public long percentile(double p) {
+        long c = count();
+        if (c == 0)
+            return 0;
+        long rank = (long) Math.ceil(p * c);
+        long seen = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            seen += buckets.get(i);
+            if (seen >= Math.max(1, rank))
+                return Math.min(max(), i == 0 ? 0 : (1L << i) - 1);
+        }
+        return max();
+    }
+
+    /**
+     * Writes count, mean, max and the 50th, 90th and 99th percentile, all
+     * values multiplied with the specified scale.
+     */
+    public XContentBuilder toXContent(XContentBuilder builder, String name, double scale) throws IOException {
+        builder.startObject(name);
+        builder.field("count", count());
+        builder.field("mean", mean() * scale);
+        builder.field("max", max() * scale);
+        builder.field("p50", percentile(0.5) * scale);
+        builder.field("p90", percentile(0.9) * scale);
+        builder.field("p99", percentile(0.99) * scale);
+        builder.endObject();
+        return builder;
+    }
+}
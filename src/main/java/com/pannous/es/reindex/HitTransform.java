@@ -0,0 +1,30 @@
+/*
+ *  Copyright 2026 the Reindex Plugin contributors
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.pannous.es.reindex;
+
+/**
+ * Rewrites the hits of one page before they are fed. Every thread which
+ * transforms pages gets its own instance from ReIndexAction.createTransform,
+ * so an implementation can keep state like a parser or a buffer without
+ * synchronization.
+ */
+public interface HitTransform {
+
+    /**
+     * @return the hits to feed or null to stop the reader
+     */
+    MySearchHits transform(MySearchHits hits);
+}
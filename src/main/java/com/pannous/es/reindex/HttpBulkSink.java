@@ -0,0 +1,210 @@
+/*
+ *  Copyright 2026 the Reindex Plugin contributors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.pannous.es.reindex;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.DecompressingHttpClient;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.compress.CompressorFactory;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Writes newline delimited _bulk bodies to a remote cluster. The
+ * connections are pooled and kept alive, the request bodies are optionally
+ * gzip compressed which requires http.compression on the remote cluster.
+ */
+public class HttpBulkSink implements BulkSink, Closeable {
+
+    private final String url;
+    private final String credentials;
+    private final boolean compress;
+    private final HttpClient client;
+    private final ExecutorService executor;
+
+    /**
+     * @param connections the maximum number of requests in flight
+     * @param socketTimeoutMillis how long a bulk request waits for data from
+     * the target before it fails
+     */
+    public HttpBulkSink(String host, int port, String credentials, boolean compress, int connections,
+            int socketTimeoutMillis) {
+        if (!host.startsWith("http"))
+            host = "http://" + host;
+        this.url = host + ":" + port + "/_bulk";
+        this.credentials = credentials == null ? "" : credentials;
+        this.compress = compress;
+        PoolingClientConnectionManager connManager = new PoolingClientConnectionManager();
+        connManager.setMaxTotal(connections);
+        connManager.setDefaultMaxPerRoute(connections);
+        BasicHttpParams httpParams = new BasicHttpParams();
+        HttpConnectionParams.setConnectionTimeout(httpParams, 20000);
+        // a target which stops answering must not block the bulk slots of the job forever
+        HttpConnectionParams.setSoTimeout(httpParams, socketTimeoutMillis);
+        client = new DecompressingHttpClient(new DefaultHttpClient(connManager, httpParams));
+        executor = Executors.newCachedThreadPool(EsExecutors.daemonThreadFactory("reindex_http_sink"));
+    }
+
+    @Override public String[] execute(List<ActionRequest<?>> requests) {
+        byte[] body;
+        try {
+            body = body(requests);
+        } catch (IOException ex) {
+            throw new RuntimeException("Cannot create bulk body", ex);
+        }
+        HttpPost http = new HttpPost(url);
+        try {
+            http.setHeader("Content-Type", "application/json; charset=utf-8");
+            if (compress)
+                http.setHeader("Content-Encoding", "gzip");
+            if (!credentials.isEmpty())
+                http.setHeader("Authorization", "Basic " + credentials);
+            http.setEntity(new ByteArrayEntity(body));
+            HttpResponse rsp = client.execute(http);
+            // reading the entity completely releases the connection for reuse
+            String content = EntityUtils.toString(rsp.getEntity(), "UTF-8");
+            int ret = rsp.getStatusLine().getStatusCode();
+            if (ret / 100 != 2) {
+                if (content.contains("EsRejectedExecutionException"))
+                    throw new EsRejectedExecutionException(content);
+                throw new RuntimeException("Problem " + ret + " while bulk indexing into " + url + " " + content);
+            }
+            return failures(content, requests.size());
+        } catch (IOException ex) {
+            throw new RuntimeException("Problem while bulk indexing into " + url + ", Error:" + ex.getMessage(), ex);
+        } catch (JSONException ex) {
+            throw new RuntimeException("Cannot parse bulk response of " + url, ex);
+        } finally {
+            http.releaseConnection();
+        }
+    }
+
+    @Override public void execute(final List<ActionRequest<?>> requests, final ActionListener<String[]> listener) {
+        executor.execute(new Runnable() {
+            @Override public void run() {
+                String[] failures;
+                try {
+                    failures = execute(requests);
+                } catch (Throwable ex) {
+                    listener.onFailure(ex);
+                    return;
+                }
+                listener.onResponse(failures);
+            }
+        });
+    }
+
+    byte[] body(List<ActionRequest<?>> requests) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputStream out = compress ? new GZIPOutputStream(bytes) : bytes;
+        for (ActionRequest<?> req : requests) {
+            write((IndexRequest) req, out);
+        }
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes the action and the source line of the specified request.
+     */
+    static void write(IndexRequest indexReq, OutputStream out) throws IOException {
+        XContentBuilder action = JsonXContent.contentBuilder().startObject().startObject("index")
+                .field("_index", indexReq.index())
+                .field("_type", indexReq.type())
+                .field("_id", indexReq.id());
+        if (indexReq.version() > 0)
+            action.field("_version", indexReq.version());
+        if (indexReq.routing() != null)
+            action.field("_routing", indexReq.routing());
+        if (indexReq.parent() != null)
+            action.field("_parent", indexReq.parent());
+        action.endObject().endObject().bytes().writeTo(out);
+        out.write('\n');
+        source(indexReq.source()).writeTo(out);
+        out.write('\n');
+    }
+
+    /**
+     * @return the source as one line of JSON
+     */
+    static BytesReference source(BytesReference source) throws IOException {
+        source = CompressorFactory.uncompressIfNeeded(source);
+        XContentType type = XContentFactory.xContentType(source);
+        if (type == XContentType.JSON && !containsNewline(source))
+            return source;
+        XContentParser parser = XContentFactory.xContent(type).createParser(source);
+        try {
+            parser.nextToken();
+            return JsonXContent.contentBuilder().copyCurrentStructure(parser).bytes();
+        } finally {
+            parser.close();
+        }
+    }
+
+    private static boolean containsNewline(BytesReference source) {
+        for (int i = 0; i < source.length(); i++) {
+            byte b = source.get(i);
+            if (b == '\n' || b == '\r')
+                return true;
+        }
+        return false;
+    }
+
+    static String[] failures(String content, int size) throws JSONException {
+        String[] failures = new String[size];
+        JSONArray items = new JSONObject(content).getJSONArray("items");
+        for (int i = 0; i < items.length() && i < size; i++) {
+            JSONObject item = items.getJSONObject(i);
+            // the only key is the operation, e.g. index
+            JSONObject result = item.getJSONObject((String) item.keys().next());
+            if (result.has("error"))
+                failures[i] = result.getString("error");
+        }
+        return failures;
+    }
+
+    @Override public void close() {
+        executor.shutdownNow();
+        client.getConnectionManager().shutdown();
+    }
+}
@@ -15,6 +15,8 @@
  */
 package com.pannous.es.reindex;
 
+import org.elasticsearch.common.bytes.BytesReference;
+
 /**
  * @author Peter Karich
  */
@@ -24,5 +26,14 @@ public interface MySearchHit {
 
     long version();
 
+    /**
+     * @return the uncompressed source as new array
+     */
     byte[] source();
+
+    /**
+     * @return the source as it was fetched, might be compressed. Used for
+     * feeding to avoid decompressing and copying the source.
+     */
+    BytesReference sourceRef();
 }
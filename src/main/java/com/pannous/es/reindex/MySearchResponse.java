@@ -25,6 +25,22 @@ public interface MySearchResponse {
     String scrollId();
 
     int doScoll();
-    
+
+    /**
+     * @return the pooled buffer the hits of the current page reference or
+     * null. Its reference is passed to the caller of doScoll, who releases it
+     * when the hits are no longer used.
+     */
+    BufferPool.Buffer pageBuffer();
+
+    /**
+     * @return the source bytes of all pages so far
+     */
     long bytes();
+
+    /**
+     * @return the bytes of all pages so far as they were received from the
+     * source, e.g. compressed
+     */
+    long wireBytes();
 }
@@ -0,0 +1,105 @@
+/*
+ *  Copyright 2026 the Reindex Plugin contributors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.pannous.es.reindex;
+
+import java.io.Closeable;
+import java.io.IOException;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+
+/**
+ * Wraps the response of one _uid range and marks the range as done in the
+ * checkpoint when done is called after the scroll was exhausted and no
+ * document failed. The caller calls done after the last bulk was fed and not
+ * at all if it stopped before, so the range must be the outermost wrapper.
+ */
+public class MySearchResponseCheckpoint implements MySearchResponse, Closeable {
+
+    private static final ESLogger logger = Loggers.getLogger(MySearchResponseCheckpoint.class);
+    private final MySearchResponse rsp;
+    private final ReIndexCheckpoint checkpoint;
+    private final String range;
+    private long docs;
+    private boolean exhausted;
+
+    public MySearchResponseCheckpoint(MySearchResponse rsp, ReIndexCheckpoint checkpoint, String range) {
+        this.rsp = rsp;
+        this.checkpoint = checkpoint;
+        this.range = range;
+    }
+
+    public MySearchResponse wrapped() {
+        return rsp;
+    }
+
+    @Override public MySearchHits hits() {
+        return rsp.hits();
+    }
+
+    @Override public String scrollId() {
+        return rsp.scrollId();
+    }
+
+    @Override public int doScoll() {
+        int size = rsp.doScoll();
+        docs += size;
+        if (size == 0)
+            exhausted = true;
+        return size;
+    }
+
+    @Override public BufferPool.Buffer pageBuffer() {
+        return rsp.pageBuffer();
+    }
+
+    /**
+     * Marks the range as done if all of its pages were read and none of its
+     * documents failed after all retries. Otherwise a resume copies the range
+     * again.
+     */
+    public void done(int failed) {
+        if (!exhausted)
+            return;
+        if (failed > 0) {
+            logger.warn("Range " + range + " not marked as done, " + failed + " documents failed");
+            checkpoint.failed(range);
+            return;
+        }
+        try {
+            checkpoint.done(range, docs);
+        } catch (IOException ex) {
+            throw new RuntimeException("Cannot write checkpoint " + checkpoint.file(), ex);
+        }
+    }
+
+    @Override public long bytes() {
+        return rsp.bytes();
+    }
+
+    @Override public long wireBytes() {
+        return rsp.wireBytes();
+    }
+
+    @Override public void close() {
+        if (rsp instanceof Closeable) {
+            try {
+                ((Closeable) rsp).close();
+            } catch (IOException ex) {
+                logger.warn("Cannot close scroll of range " + range, ex);
+            }
+        }
+    }
+}
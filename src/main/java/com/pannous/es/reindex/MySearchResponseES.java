@@ -15,12 +15,21 @@
  */
 package com.pannous.es.reindex;
 
+import java.lang.reflect.Field;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.client.transport.TransportClient;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.inject.Injector;
 import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.SearchHits;
+import org.elasticsearch.search.internal.InternalSearchHit;
+import org.elasticsearch.transport.TransportService;
 
 /**
  * Searches with the given client - used for the same cluster. Not suited for
@@ -33,12 +42,17 @@ public class MySearchResponseES implements MySearchResponse {
     private SearchResponse rsp;
     private final int keepTimeInMinutes;
     private final Client client;
-    private long bytes = 0;
+    private volatile long bytes;
+    private volatile long wireBytes;
+    // null for the client of this node
+    private final ReceivedBytes received;
+    private static final Map<Client, ReceivedBytes> receivedByClient = new WeakHashMap<Client, ReceivedBytes>();
 
     public MySearchResponseES(Client client, SearchResponse rsp, int keepTimeInMinutes) {
         this.client = client;
         this.rsp = rsp;
         this.keepTimeInMinutes = keepTimeInMinutes;
+        this.received = client instanceof TransportClient ? received((TransportClient) client) : null;
     }
 
     @Override public MySearchHits hits() {
@@ -57,10 +71,7 @@ public class MySearchResponseES implements MySearchResponse {
                             }
 
                             @Override public MySearchHit next() {
-                                bytes += arr[counter].source().length;
-                                MySearchHitES ret = new MySearchHitES(arr[counter]);
-                                counter++;
-                                return ret;
+                                return new MySearchHitES(arr[counter++]);
                             }
 
                             @Override public void remove() {
@@ -85,14 +96,90 @@ public class MySearchResponseES implements MySearchResponse {
     @Override public int doScoll() {
         rsp = client.prepareSearchScroll(scrollId()).setScroll(TimeValue.timeValueMinutes(keepTimeInMinutes)).
                 execute().actionGet();
+        // counted once per page, the hits might be iterated several times
+        long pageBytes = 0;
+        for (SearchHit hit : rsp.getHits().hits()) {
+            BytesReference source = new MySearchHitES(hit).sourceRef();
+            if (source != null)
+                pageBytes += source.length();
+        }
+        bytes += pageBytes;
+        // nothing crosses a wire for the client of this node
+        wireBytes += received == null ? pageBytes : received.next();
         return rsp.getHits().hits().length;
     }
 
+    /**
+     * @return null, the hits reference the search response
+     */
+    @Override public BufferPool.Buffer pageBuffer() {
+        return null;
+    }
+
     @Override
     public long bytes() {
         return bytes;
     }
 
+    /**
+     * @return the bytes received by the transport of a client for another
+     * cluster, the source bytes for the client of this node
+     */
+    @Override public long wireBytes() {
+        return wireBytes;
+    }
+
+    private static ReceivedBytes received(TransportClient client) {
+        synchronized (receivedByClient) {
+            ReceivedBytes received = receivedByClient.get(client);
+            if (received == null)
+                receivedByClient.put(client, received = new ReceivedBytes(transportService(client)));
+            return received;
+        }
+    }
+
+    /**
+     * @return the transport of the specified client or null. TransportClient
+     * does not expose it in 0.90.
+     */
+    static TransportService transportService(TransportClient client) {
+        try {
+            Field field = TransportClient.class.getDeclaredField("injector");
+            field.setAccessible(true);
+            return ((Injector) field.get(client)).getInstance(TransportService.class);
+        } catch (Exception ex) {
+            return null;
+        }
+    }
+
+    /**
+     * The bytes received by the transport of one client, which the readers
+     * of a job share. Every reader takes the bytes received since any reader
+     * took them last, so every byte is counted once.
+     */
+    static class ReceivedBytes {
+
+        private final TransportService transport;
+        private final AtomicLong taken = new AtomicLong();
+
+        ReceivedBytes(TransportService transport) {
+            this.transport = transport;
+        }
+
+        long next() {
+            if (transport == null)
+                return 0;
+            long rx = transport.stats().rxSize().bytes();
+            while (true) {
+                long before = taken.get();
+                if (rx <= before)
+                    return 0;
+                if (taken.compareAndSet(before, rx))
+                    return rx - before;
+            }
+        }
+    }
+
     static class MySearchHitES implements MySearchHit {
 
         private SearchHit sh;
@@ -112,5 +199,11 @@ public class MySearchResponseES implements MySearchResponse {
         @Override public byte[] source() {
             return sh.source();
         }
+
+        @Override public BytesReference sourceRef() {
+            if (sh instanceof InternalSearchHit)
+                return ((InternalSearchHit) sh).internalSourceRef();
+            return sh.sourceRef();
+        }
     }
 }
@@ -0,0 +1,214 @@
+/*
+ *  Copyright 2026 the Reindex Plugin contributors
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.pannous.es.reindex;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.elasticsearch.common.compress.Compressor;
+import org.elasticsearch.common.compress.CompressorFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+
+/**
+ * Reads the blocks of a dump file written by FileBulkSink via a memory
+ * mapped file. Every doScoll returns one block. Only the blocks which start
+ * within the specified byte range are read, so a file can be imported by
+ * several readers in parallel.
+ */
+public class MySearchResponseFile implements MySearchResponse, Closeable {
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final MappedByteBuffer buffer;
+    private final long end;
+    private final Compressor compressor = CompressorFactory.compressor("lzf");
+    private long totalHits;
+    private long bytes;
+    private long wireBytes;
+    private List<MySearchHit> hits = Collections.emptyList();
+
+    /**
+     * Reads the blocks starting at or after start and before end.
+     */
+    public MySearchResponseFile(File file, long start, long end) throws IOException {
+        this.file = file;
+        raf = new RandomAccessFile(file, "r");
+        try {
+            if (raf.length() > Integer.MAX_VALUE)
+                throw new IOException("Cannot read " + file + " with " + raf.length() + " bytes, dump files must be"
+                        + " smaller than 2GB");
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } catch (IOException ex) {
+            raf.close();
+            throw ex;
+        }
+        this.end = Math.min(end, buffer.limit());
+        // skip the blocks of the previous range and count the own ones
+        int pos = 0;
+        while (pos < start && pos < buffer.limit()) {
+            pos = nextBlock(pos);
+        }
+        buffer.position(pos);
+        while (pos < this.end) {
+            totalHits += buffer.getInt(pos + 4);
+            pos = nextBlock(pos);
+        }
+    }
+
+    /**
+     * @return the byte ranges [start, end) to read the specified file with
+     * the specified number of readers
+     */
+    public static List<long[]> splits(File file, int parts) {
+        List<long[]> splits = new ArrayList<long[]>(parts);
+        long length = file.length();
+        for (int i = 0; i < parts; i++) {
+            splits.add(new long[]{length * i / parts, length * (i + 1) / parts});
+        }
+        return splits;
+    }
+
+    private int nextBlock(int pos) {
+        return pos + FileBulkSink.HEADER_LENGTH + blockLength(pos);
+    }
+
+    /**
+     * @return the compressed length of the block at the specified position
+     * after checking that the whole block is within the file
+     */
+    private int blockLength(int pos) {
+        int remaining = buffer.limit() - pos - FileBulkSink.HEADER_LENGTH;
+        if (remaining < 0)
+            throw new IllegalStateException("Truncated block header at " + pos + " of " + file);
+        if (buffer.getInt(pos) != FileBulkSink.MAGIC)
+            throw new IllegalStateException("No block at " + pos + " of " + file);
+        int length = buffer.getInt(pos + 8);
+        if (length < 0 || length > remaining)
+            throw new IllegalStateException("Truncated block at " + pos + " of " + file + ", expected " + length
+                    + " bytes but only " + remaining + " are left");
+        return length;
+    }
+
+    @Override public MySearchHits hits() {
+        final List<MySearchHit> page = hits;
+        return new MySearchHits() {
+            @Override public Iterable<MySearchHit> getHits() {
+                return page;
+            }
+
+            @Override public long totalHits() {
+                return totalHits;
+            }
+        };
+    }
+
+    @Override public String scrollId() {
+        return file.getName() + "@" + buffer.position();
+    }
+
+    @Override public int doScoll() {
+        int pos = buffer.position();
+        if (pos >= end) {
+            hits = Collections.emptyList();
+            return 0;
+        }
+        byte[] compressed = new byte[blockLength(pos)];
+        int docs = buffer.getInt(pos + 4);
+        buffer.position(pos + FileBulkSink.HEADER_LENGTH);
+        buffer.get(compressed);
+        wireBytes += FileBulkSink.HEADER_LENGTH + compressed.length;
+        try {
+            hits = parseBlock(compressor.uncompress(compressed, 0, compressed.length), docs);
+        } catch (IOException ex) {
+            throw new RuntimeException("Cannot read block at " + pos + " of " + file, ex);
+        }
+        for (MySearchHit hit : hits) {
+            bytes += ((MySearchResponseJson.MySearchHitJson) hit).length;
+        }
+        return hits.size();
+    }
+
+    /**
+     * @return null, every block is uncompressed into a new array
+     */
+    @Override public BufferPool.Buffer pageBuffer() {
+        return null;
+    }
+
+    /**
+     * @return the hits of the action and source lines. The sources reference
+     * the block.
+     */
+    private List<MySearchHit> parseBlock(byte[] block, int docs) throws IOException {
+        List<MySearchHit> res = new ArrayList<MySearchHit>(docs);
+        int lineStart = 0;
+        while (lineStart < block.length) {
+            int actionEnd = indexOf(block, lineStart);
+            String id = null;
+            long version = 0;
+            XContentParser parser = JsonXContent.jsonXContent.createParser(block, lineStart, actionEnd - lineStart);
+            try {
+                XContentParser.Token token;
+                String name = null;
+                while ((token = parser.nextToken()) != null) {
+                    if (token == XContentParser.Token.FIELD_NAME)
+                        name = parser.currentName();
+                    else if ("_id".equals(name) && token.isValue())
+                        id = parser.text();
+                    else if ("_version".equals(name) && token.isValue())
+                        version = parser.longValue();
+                }
+            } finally {
+                parser.close();
+            }
+            int sourceEnd = indexOf(block, actionEnd + 1);
+            res.add(new MySearchResponseJson.MySearchHitJson(id, block, actionEnd + 1, sourceEnd - actionEnd - 1,
+                    version));
+            lineStart = sourceEnd + 1;
+        }
+        return res;
+    }
+
+    private static int indexOf(byte[] block, int from) {
+        for (int i = from; i < block.length; i++) {
+            if (block[i] == '\n')
+                return i;
+        }
+        return block.length;
+    }
+
+    @Override public long bytes() {
+        return bytes;
+    }
+
+    /**
+     * @return the compressed bytes of the blocks read so far
+     */
+    @Override public long wireBytes() {
+        return wireBytes;
+    }
+
+    @Override public void close() throws IOException {
+        raf.close();
+    }
+}
@@ -16,26 +16,42 @@
 package com.pannous.es.reindex;
 
 import java.io.BufferedInputStream;
+import java.io.Closeable;
 import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.Proxy;
-import java.net.URL;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
 import org.apache.http.client.HttpClient;
 import org.apache.http.entity.StringEntity;
+import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.impl.client.DecompressingHttpClient;
+import org.apache.http.entity.HttpEntityWrapper;
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.impl.conn.PoolingClientConnectionManager;
 import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.jackson.core.JsonFactory;
+import org.elasticsearch.common.jackson.core.JsonGenerator;
+import org.elasticsearch.common.jackson.core.JsonParser;
+import org.elasticsearch.common.jackson.core.JsonToken;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -43,62 +59,187 @@ import org.json.JSONObject;
 /**
  * @author Peter Karich
  */
-public class MySearchResponseJson implements MySearchResponse {
+public class MySearchResponseJson implements MySearchResponse, Closeable {
 
     private int timeout = 20000;
+    // a reader must not wait forever for a node which does not answer
+    private int socketTimeout = 5 * 60 * 1000;
     private HttpClient client;
     private String scrollId;
     private List<MySearchHit> bufferedHits;
+    private BufferPool.Buffer pageBuffer;
+    private final int hitsPerPage;
     private String host;
     private int port;
     private int keepMin;
     private final boolean withVersion;
-    private final long totalHits;
-    private long bytes;
+    private long totalHits;
+    private volatile long bytes;
+    private final AtomicLong wireBytes = new AtomicLong();
+    private int lastPageSize = 64 * 1024;
+    // a page is returned to the pool when its hits are no longer referenced
+    private BufferPool buffers = new BufferPool(0);
+    private static final JsonFactory jsonFactory = new JsonFactory();
     private String credentials = "";
 
     public MySearchResponseJson(String searchHost, int searchPort, String searchIndexName,
             String searchType, String filter, String credentials,
             int hitsPerPage, boolean withVersion, int keepTimeInMinutes) {
+        this(searchHost, searchPort, searchIndexName, searchType, filter, credentials,
+                hitsPerPage, withVersion, keepTimeInMinutes, null);
+    }
+
+    /**
+     * @param preference e.g. _shards:2 to scroll only through the third shard.
+     * Use null to scroll through all shards.
+     */
+    public MySearchResponseJson(String searchHost, int searchPort, String searchIndexName,
+            String searchType, String filter, String credentials,
+            int hitsPerPage, boolean withVersion, int keepTimeInMinutes, String preference) {
+        this(searchHost, searchPort, credentials, hitsPerPage, withVersion, keepTimeInMinutes);
+
+        // initial query to get scroll id for our specific search
+        try {
+            String url = host + ":" + port + "/" + searchIndexName + "/" + searchType
+                    + "/_search?search_type=scan&scroll=" + keepMin + "m&size=" + hitsPerPage;
+            if (preference != null && !preference.isEmpty())
+                url += "&preference=" + URLEncoder.encode(preference, "UTF-8");
+
+            String query;
+            if (filter == null || filter.isEmpty())
+                query = "{ \"query\" : {\"match_all\" : {}}}";
+            else
+                query = "{ \"filter\" : " + filter + "}";
+
+            JSONObject res = doPost(url, query);
+            scrollId = res.getString("_scroll_id");
+            totalHits = res.getJSONObject("hits").getLong("total");
+        } catch (UnsupportedEncodingException ex) {
+            close();
+            throw new RuntimeException(ex);
+        } catch (JSONException ex) {
+            close();
+            throw new RuntimeException(ex);
+        } catch (RuntimeException ex) {
+            close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Creates only the connection without a scroll search.
+     */
+    MySearchResponseJson(String searchHost, int searchPort, String credentials,
+            int hitsPerPage, boolean withVersion, int keepTimeInMinutes) {
         if (!searchHost.startsWith("http"))
             searchHost = "http://" + searchHost;
         this.host = searchHost;
         this.port = searchPort;
         this.withVersion = withVersion;
         keepMin = keepTimeInMinutes;
+        this.hitsPerPage = hitsPerPage;
         bufferedHits = new ArrayList<MySearchHit>(hitsPerPage);
         PoolingClientConnectionManager connManager = new PoolingClientConnectionManager();
         connManager.setMaxTotal(10);
         BasicHttpParams httpParams = new BasicHttpParams();
         HttpConnectionParams.setConnectionTimeout(httpParams, timeout);
-        client = new DefaultHttpClient(connManager, httpParams);
+        HttpConnectionParams.setSoTimeout(httpParams, socketTimeout);
+        DefaultHttpClient backend = new DefaultHttpClient(connManager, httpParams);
+        // runs before the response is uncompressed
+        backend.addResponseInterceptor(new HttpResponseInterceptor() {
+            @Override public void process(HttpResponse response, HttpContext context) {
+                if (response.getEntity() != null)
+                    response.setEntity(new CountingEntity(response.getEntity(), wireBytes));
+            }
+        });
+        // asks for gzip or deflate compressed responses and uncompresses them transparently
+        client = new DecompressingHttpClient(backend);
         // does not work!? client.getParams().setParameter("Authorization", "Basic " + credentials);
         if (credentials != null)
-            this.credentials = credentials;        
+            this.credentials = credentials;
+    }
 
-        // initial query to get scroll id for our specific search
+    /**
+     * Reads the pages into arrays of the specified pool. The hits of a page
+     * reference its buffer which must be released after they are indexed.
+     */
+    public MySearchResponseJson buffers(BufferPool buffers) {
+        this.buffers = buffers;
+        return this;
+    }
+
+    /**
+     * @return the maximum number of shards of the specified indices, useful to
+     * create one scroll per shard via the preference '_shards:x'
+     */
+    public static int numberOfShards(String searchHost, int searchPort, String searchIndexName,
+            String credentials) {
+        MySearchResponseJson rsp = new MySearchResponseJson(searchHost, searchPort, credentials, 0, false, 0);
         try {
-            String url = searchHost + ":" + searchPort + "/" + searchIndexName + "/" + searchType
-                    + "/_search?search_type=scan&scroll=" + keepMin + "m&size=" + hitsPerPage;
+            JSONObject json = rsp.doGet(rsp.host + ":" + rsp.port + "/" + searchIndexName + "/_settings");
+            int shards = 0;
+            for (Iterator<?> iter = json.keys(); iter.hasNext();) {
+                JSONObject settings = json.getJSONObject((String) iter.next()).getJSONObject("settings");
+                int tmp;
+                if (settings.has("index.number_of_shards"))
+                    tmp = settings.getInt("index.number_of_shards");
+                else
+                    tmp = settings.getJSONObject("index").getInt("number_of_shards");
+                shards = Math.max(shards, tmp);
+            }
+            return shards;
+        } catch (JSONException ex) {
+            throw new RuntimeException(ex);
+        } finally {
+            rsp.close();
+        }
+    }
 
-            String query;
+    /**
+     * Makes all documents of the specified indices visible to searches.
+     */
+    public static void refresh(String searchHost, int searchPort, String searchIndexName, String credentials) {
+        MySearchResponseJson rsp = new MySearchResponseJson(searchHost, searchPort, credentials, 0, false, 0);
+        try {
+            rsp.requestContent(new HttpPost(rsp.host + ":" + rsp.port + "/" + searchIndexName + "/_refresh"), "");
+        } finally {
+            rsp.close();
+        }
+    }
+
+    /**
+     * @return the newest value of the specified field or null if no document
+     * matches
+     */
+    public static Object maxValue(String searchHost, int searchPort, String searchIndexName,
+            String searchType, String field, String filter, String credentials) {
+        MySearchResponseJson rsp = new MySearchResponseJson(searchHost, searchPort, credentials, 0, false, 0);
+        try {
+            String url = rsp.host + ":" + rsp.port + "/" + searchIndexName + "/" + searchType + "/_search";
+            JSONObject query = new JSONObject().put("size", 1).put("fields", new JSONArray()).
+                    put("sort", new JSONArray().put(new JSONObject().put(field, "desc")));
             if (filter == null || filter.isEmpty())
-                query = "{ \"query\" : {\"match_all\" : {}}}";
+                query.put("query", new JSONObject().put("match_all", new JSONObject()));
             else
-                query = "{ \"filter\" : " + filter + "}";
-
-            JSONObject res = doPost(url, query);
-            scrollId = res.getString("_scroll_id");
-            totalHits = res.getJSONObject("hits").getLong("total");
+                query.put("filter", new JSONObject(filter));
+            JSONArray hits = rsp.doPost(url, query.toString()).getJSONObject("hits").getJSONArray("hits");
+            if (hits.length() == 0 || !hits.getJSONObject(0).has("sort"))
+                return null;
+            Object value = hits.getJSONObject(0).getJSONArray("sort").get(0);
+            return JSONObject.NULL.equals(value) ? null : value;
         } catch (JSONException ex) {
             throw new RuntimeException(ex);
+        } finally {
+            rsp.close();
         }
     }
 
     @Override public MySearchHits hits() {
+        // keep the current page even if doScoll is called again (prefetching)
+        final List<MySearchHit> hits = bufferedHits;
         return new MySearchHits() {
             @Override public Iterable<MySearchHit> getHits() {
-                return bufferedHits;
+                return hits;
             }
 
             @Override public long totalHits() {
@@ -111,29 +252,159 @@ public class MySearchResponseJson implements MySearchResponse {
         return scrollId;
     }
 
+    @Override public BufferPool.Buffer pageBuffer() {
+        return pageBuffer;
+    }
+
     @Override public int doScoll() {
+        // the scroll id can be very long (one part per shard) so send it in the body
+        HttpPost http = new HttpPost(host + ":" + port + "/_search/scroll?scroll=" + keepMin + "m");
         try {
-            bufferedHits.clear();
-            JSONObject json = doGet(host + ":" + port
-                    + "/_search/scroll?scroll=" + keepMin + "m&scroll_id=" + scrollId);
-            scrollId = json.getString("_scroll_id");
-            JSONObject hitsJson = json.getJSONObject("hits");
-            JSONArray arr = hitsJson.getJSONArray("hits");
-            for (int i = 0; i < arr.length(); i++) {
-                JSONObject hitJson = arr.getJSONObject(i);
-                long version = -1;
-                String id = hitJson.getString("_id");
-                byte[] source = hitJson.getString("_source").getBytes("UTF-8");
-                if (withVersion && hitJson.has("_version"))
-                    version = hitJson.getLong("_version");
-                bytes += source.length;
-                MySearchHitJson res = new MySearchHitJson(id, source, version);
-                bufferedHits.add(res);
+            addHeaders(http);
+            http.setEntity(new StringEntity(scrollId, "UTF-8"));
+            HttpResponse rsp = client.execute(http);
+            int ret = rsp.getStatusLine().getStatusCode();
+            if (ret / 200 != 1)
+                throw new RuntimeException("Problem " + ret + " while " + http.getMethod()
+                        + " " + readString(rsp.getEntity().getContent(), "UTF-8"));
+
+            HttpEntity entity = rsp.getEntity();
+            int expectedSize = entity.getContentLength() > 0 ? (int) entity.getContentLength() : lastPageSize;
+            // one byte more to detect the end without growing
+            BufferPool.Buffer page = buffers.acquire(expectedSize + 1);
+            int size = 0;
+            InputStream is = entity.getContent();
+            try {
+                int numRead;
+                while ((numRead = is.read(page.array(), size, page.array().length - size)) != -1) {
+                    size += numRead;
+                    if (size == page.array().length)
+                        page = buffers.grow(page, size, 2 * size);
+                }
+            } catch (IOException ex) {
+                page.release();
+                throw ex;
+            } catch (RuntimeException ex) {
+                page.release();
+                throw ex;
+            } finally {
+                is.close();
             }
-            return bufferedHits.size();
+            lastPageSize = size;
+            return parsePage(page, size);
         } catch (Exception ex) {
-            throw new RuntimeException(ex);
+            throw new RuntimeException("Problem while " + http.getMethod()
+                    + ", Error:" + ex.getMessage() + ", url:" + http.getURI(), ex);
+        } finally {
+            http.releaseConnection();
+        }
+    }
+
+    /**
+     * Parses one scroll page without building a tree. The _source of every
+     * hit is not parsed at all but referenced as slice of the page.
+     *
+     * @return the number of hits of the page
+     */
+    int parsePage(byte[] page, int length) throws IOException {
+        pageBuffer = null;
+        return parse(page, length);
+    }
+
+    /**
+     * Parses the specified page and passes its reference to the caller via
+     * pageBuffer or releases it if no hit references it.
+     */
+    private int parsePage(BufferPool.Buffer page, int length) throws IOException {
+        pageBuffer = null;
+        boolean referenced = false;
+        try {
+            parse(page.array(), length);
+            for (MySearchHit hit : bufferedHits) {
+                if (((MySearchHitJson) hit).page == page.array())
+                    referenced = true;
+            }
+            if (referenced)
+                pageBuffer = page;
+            return bufferedHits.size();
+        } finally {
+            if (!referenced)
+                page.release();
+        }
+    }
+
+    private int parse(byte[] page, int length) throws IOException {
+        List<MySearchHit> hits = new ArrayList<MySearchHit>(hitsPerPage);
+        JsonParser parser = jsonFactory.createParser(page, 0, length);
+        try {
+            if (parser.nextToken() != JsonToken.START_OBJECT)
+                throw new IOException("scroll response is not a json object");
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if ("_scroll_id".equals(name))
+                    scrollId = parser.getText();
+                else if ("hits".equals(name) && token == JsonToken.START_OBJECT)
+                    parseHits(parser, page, hits);
+                else
+                    parser.skipChildren();
+            }
+        } finally {
+            parser.close();
         }
+        bufferedHits = hits;
+        return hits.size();
+    }
+
+    private void parseHits(JsonParser parser, byte[] page, List<MySearchHit> hits)
+            throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if ("hits".equals(name) && token == JsonToken.START_ARRAY) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    hits.add(parseHit(parser, page));
+                }
+            } else
+                parser.skipChildren();
+        }
+    }
+
+    private MySearchHit parseHit(JsonParser parser, byte[] page) throws IOException {
+        String id = null;
+        long version = -1;
+        byte[] sourcePage = page;
+        int offset = 0;
+        int length = 0;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if ("_id".equals(name))
+                id = parser.getText();
+            else if ("_version".equals(name)) {
+                if (withVersion)
+                    version = parser.getLongValue();
+            } else if ("_source".equals(name) && token == JsonToken.START_OBJECT) {
+                // for byte input the location is the byte offset of the last read byte
+                offset = (int) parser.getCurrentLocation().getCharOffset();
+                if (offset >= 0 && offset < page.length && page[offset] == '{') {
+                    parser.skipChildren();
+                    length = (int) parser.getCurrentLocation().getCharOffset() + 1 - offset;
+                } else {
+                    // unknown offsets => serialize again
+                    BytesStreamOutput out = new BytesStreamOutput();
+                    JsonGenerator gen = jsonFactory.createGenerator(out);
+                    gen.copyCurrentStructure(parser);
+                    gen.close();
+                    sourcePage = out.bytes().array();
+                    offset = 0;
+                    length = out.size();
+                }
+            } else
+                parser.skipChildren();
+        }
+        bytes += length;
+        return new MySearchHitJson(id, sourcePage, offset, length, version);
     }
 
     @Override
@@ -141,15 +412,58 @@ public class MySearchResponseJson implements MySearchResponse {
         return bytes;
     }
 
-    class MySearchHitJson implements MySearchHit {
+    /**
+     * @return the bytes of all response bodies before they were
+     * uncompressed
+     */
+    @Override public long wireBytes() {
+        return wireBytes.get();
+    }
+
+    /**
+     * Counts the bytes read from the wrapped entity.
+     */
+    static class CountingEntity extends HttpEntityWrapper {
+
+        private final AtomicLong counter;
+
+        CountingEntity(HttpEntity entity, AtomicLong counter) {
+            super(entity);
+            this.counter = counter;
+        }
+
+        @Override public InputStream getContent() throws IOException {
+            return new FilterInputStream(super.getContent()) {
+                @Override public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0)
+                        counter.incrementAndGet();
+                    return b;
+                }
+
+                @Override public int read(byte[] b, int off, int len) throws IOException {
+                    int n = super.read(b, off, len);
+                    if (n > 0)
+                        counter.addAndGet(n);
+                    return n;
+                }
+            };
+        }
+    }
+
+    static class MySearchHitJson implements MySearchHit {
 
         String id;
-        byte[] source;
+        byte[] page;
+        int offset;
+        int length;
         long version;
 
-        public MySearchHitJson(String id, byte[] source, long version) {
+        public MySearchHitJson(String id, byte[] page, int offset, int length, long version) {
             this.id = id;
-            this.source = source;
+            this.page = page;
+            this.offset = offset;
+            this.length = length;
             this.version = version;
         }
 
@@ -162,25 +476,14 @@ public class MySearchResponseJson implements MySearchResponse {
         }
 
         @Override public byte[] source() {
+            byte[] source = new byte[length];
+            System.arraycopy(page, offset, source, 0, length);
             return source;
         }
-    }
 
-    protected HttpURLConnection createUrlConnection(String urlAsStr, int timeout)
-            throws MalformedURLException, IOException {
-        URL url = new URL(urlAsStr);
-        //using proxy may increase latency
-        HttpURLConnection hConn = (HttpURLConnection) url.openConnection(Proxy.NO_PROXY);
-        hConn.setRequestProperty("User-Agent", "ElasticSearch reindex");
-        hConn.setRequestProperty("Accept", "application/json");
-        hConn.setRequestProperty("content-charset", "UTF-8");
-        // hConn.setRequestProperty("Cache-Control", cacheControl);
-        // suggest respond to be gzipped or deflated (which is just another compression)
-        // http://stackoverflow.com/q/3932117
-        hConn.setRequestProperty("Accept-Encoding", "gzip, deflate");
-        hConn.setConnectTimeout(timeout);
-        hConn.setReadTimeout(timeout);
-        return hConn;
+        @Override public BytesReference sourceRef() {
+            return new BytesArray(page, offset, length);
+        }
     }
 
     public JSONObject doPost(String url, String content) throws JSONException {
@@ -232,6 +535,31 @@ public class MySearchResponseJson implements MySearchResponse {
         }
     }
 
+    /**
+     * Clears the scroll and closes the connections. Nodes before 0.90.4 do
+     * not know the clear scroll API, there the scroll expires after
+     * keepTimeInMinutes.
+     */
+    @Override public void close() {
+        try {
+            if (scrollId != null) {
+                HttpDelete http = new HttpDelete(host + ":" + port + "/_search/scroll/"
+                        + URLEncoder.encode(scrollId, "UTF-8"));
+                try {
+                    addHeaders(http);
+                    EntityUtils.consume(client.execute(http).getEntity());
+                } finally {
+                    http.releaseConnection();
+                }
+            }
+        } catch (Exception ex) {
+            // the scroll expires anyway
+        } finally {
+            scrollId = null;
+            client.getConnectionManager().shutdown();
+        }
+    }
+
     public static String readString(InputStream inputStream, String encoding) throws IOException {
         InputStream in = new BufferedInputStream(inputStream);
         try {
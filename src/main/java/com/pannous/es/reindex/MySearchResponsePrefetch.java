@@ -0,0 +1,200 @@
+/*
+ *  Copyright 2026 the Reindex Plugin contributors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.pannous.es.reindex;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wraps another response and fetches up to 'pages' scroll pages in advance
+ * from a separate reader thread. This way the next scroll request runs while
+ * the current page is bulk indexed.
+ */
+public class MySearchResponsePrefetch implements MySearchResponse, Closeable {
+
+    private final MySearchResponse rsp;
+    private final BlockingQueue<Page> queue;
+    private final long totalHits;
+    private Thread reader;
+    private volatile boolean closed = false;
+    private boolean finished = false;
+    private Page current;
+
+    public MySearchResponsePrefetch(MySearchResponse rsp, int pages) {
+        if (pages < 1)
+            throw new IllegalArgumentException("pages must be positive but was " + pages);
+        this.rsp = rsp;
+        this.queue = new ArrayBlockingQueue<Page>(pages);
+        // read before the reader thread modifies the wrapped response
+        this.totalHits = rsp.hits().totalHits();
+        this.current = new Page(rsp.hits(), rsp.scrollId(), 0, rsp.bytes(), rsp.wireBytes(), null, null);
+    }
+
+    @Override public MySearchHits hits() {
+        final MySearchHits hits = current.hits;
+        return new MySearchHits() {
+            @Override public Iterable<MySearchHit> getHits() {
+                return hits.getHits();
+            }
+
+            @Override public long totalHits() {
+                return totalHits;
+            }
+        };
+    }
+
+    @Override public String scrollId() {
+        return current.scrollId;
+    }
+
+    @Override public BufferPool.Buffer pageBuffer() {
+        return current.buffer;
+    }
+
+    @Override public int doScoll() {
+        if (finished)
+            return 0;
+        if (reader == null)
+            startReader();
+
+        Page page;
+        try {
+            page = queue.take();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for next page", ex);
+        }
+        if (page.error != null) {
+            finished = true;
+            throw new RuntimeException("Problem while prefetching page", page.error);
+        }
+        if (page.size == 0)
+            finished = true;
+        current = page;
+        return page.size;
+    }
+
+    /**
+     * @return the bytes up to the current page, without the pages fetched in
+     * advance
+     */
+    @Override public long bytes() {
+        return current.bytes;
+    }
+
+    @Override public long wireBytes() {
+        return current.wireBytes;
+    }
+
+    /**
+     * @return the number of pages which are already fetched
+     */
+    public int queued() {
+        return queue.size();
+    }
+
+    /**
+     * Stops the reader thread and closes the wrapped response. Pages which
+     * are already fetched are dropped and their buffers released.
+     */
+    @Override public void close() throws IOException {
+        closed = true;
+        if (reader != null)
+            reader.interrupt();
+        drop();
+        if (rsp instanceof Closeable)
+            ((Closeable) rsp).close();
+    }
+
+    /**
+     * Called by close and by the reader thread if it was closed while adding
+     * a page, so every dropped page is released exactly once.
+     */
+    private void drop() {
+        Page page;
+        while ((page = queue.poll()) != null) {
+            if (page.buffer != null)
+                page.buffer.release();
+        }
+    }
+
+    private void startReader() {
+        reader = new Thread(new Runnable() {
+            @Override public void run() {
+                try {
+                    while (!closed) {
+                        int size = rsp.doScoll();
+                        // the hits must be grabbed before the next doScoll
+                        Page page = new Page(rsp.hits(), rsp.scrollId(), size, rsp.bytes(), rsp.wireBytes(),
+                                rsp.pageBuffer(), null);
+                        if (!put(page)) {
+                            if (page.buffer != null)
+                                page.buffer.release();
+                            break;
+                        }
+                        if (closed)
+                            drop();
+                        if (size == 0)
+                            break;
+                    }
+                } catch (Exception ex) {
+                    if (!closed)
+                        put(new Page(null, null, 0, 0, 0, null, ex));
+                }
+            }
+        }, "reindex_prefetch");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    private boolean put(Page page) {
+        try {
+            while (!closed) {
+                if (queue.offer(page, 100, TimeUnit.MILLISECONDS))
+                    return true;
+            }
+        } catch (InterruptedException ex) {
+            // closed
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    private static class Page {
+
+        final MySearchHits hits;
+        final String scrollId;
+        final int size;
+        final long bytes;
+        final long wireBytes;
+        final BufferPool.Buffer buffer;
+        final Exception error;
+
+        Page(MySearchHits hits, String scrollId, int size, long bytes, long wireBytes, BufferPool.Buffer buffer,
+                Exception error) {
+            this.hits = hits;
+            this.scrollId = scrollId;
+            this.size = size;
+            this.bytes = bytes;
+            this.wireBytes = wireBytes;
+            this.buffer = buffer;
+            this.error = error;
+        }
+    }
+}
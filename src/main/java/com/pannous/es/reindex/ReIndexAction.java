@@ -1,31 +1,55 @@
 package com.pannous.es.reindex;
 
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
-import org.elasticsearch.action.admin.indices.flush.FlushRequest;
-import org.elasticsearch.action.bulk.BulkItemResponse;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.elasticsearch.action.admin.cluster.state.ClusterStateRequest;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
 import org.elasticsearch.action.bulk.BulkRequestBuilder;
-import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.search.SearchType;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.client.Requests;
+import org.elasticsearch.client.transport.TransportClient;
+import org.elasticsearch.cluster.metadata.MetaData;
 import org.elasticsearch.common.StopWatch;
+import org.elasticsearch.common.Strings;
 import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.ImmutableSettings;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.transport.InetSocketTransportAddress;
 import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
 import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.index.mapper.Uid;
 import org.elasticsearch.rest.BaseRestHandler;
 import org.elasticsearch.rest.RestChannel;
 import org.elasticsearch.rest.RestController;
 import org.elasticsearch.rest.RestRequest;
 import org.elasticsearch.rest.XContentRestResponse;
 import org.elasticsearch.rest.XContentThrowableRestResponse;
+import org.elasticsearch.script.ScriptService;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.sort.SortOrder;
 import static org.elasticsearch.rest.RestRequest.Method.*;
 import static org.elasticsearch.rest.RestStatus.*;
 import static org.elasticsearch.rest.action.support.RestXContentBuilder.*;
@@ -37,8 +61,33 @@ import static org.elasticsearch.rest.action.support.RestXContentBuilder.*;
  */
 public class ReIndexAction extends BaseRestHandler {
 
-    @Inject public ReIndexAction(Settings settings, Client client, RestController controller) {
+    private final ReIndexJobs jobs;
+    // null if not running in a node
+    private final ScriptService scriptService;
+    // one transform per reader or transform thread
+    private final ThreadLocal<HitTransform> transforms = new ThreadLocal<HitTransform>() {
+        @Override protected HitTransform initialValue() {
+            return createTransform();
+        }
+    };
+
+    /**
+     * Creates an action without the jobs service of a node, which can only
+     * reindex via the reindex methods but not handle requests.
+     */
+    public ReIndexAction(Settings settings, Client client, RestController controller) {
+        this(settings, client, controller, null);
+    }
+
+    public ReIndexAction(Settings settings, Client client, RestController controller, ReIndexJobs jobs) {
+        this(settings, client, controller, jobs, null);
+    }
+
+    @Inject public ReIndexAction(Settings settings, Client client, RestController controller,
+            ReIndexJobs jobs, ScriptService scriptService) {
         super(settings, client);
+        this.jobs = jobs;
+        this.scriptService = scriptService;
 
         if (controller != null) {
             // Define REST endpoints to do a reindex
@@ -47,72 +96,706 @@ public class ReIndexAction extends BaseRestHandler {
         }
     }
 
-    @Override public void handleRequest(RestRequest request, RestChannel channel) {
-        handleRequest(request, channel, null, false);
+    /**
+     * @return the jobs service of the node or null
+     */
+    public ReIndexJobs jobs() {
+        return jobs;
     }
 
-    public void handleRequest(RestRequest request, RestChannel channel, String newTypeOverride, boolean internalCall) {
+    @Override public void handleRequest(RestRequest request, RestChannel channel) {
         logger.info("ReIndexAction.handleRequest [{}]", request.params());
+        ReIndexJob job = null;
+        boolean submitted = false;
         try {
-            XContentBuilder builder = restContentBuilder(request);
-            String newIndexName = request.param("index");
-            String searchIndexName = request.param("searchIndex");
-            if (searchIndexName == null || searchIndexName.isEmpty())
-                searchIndexName = newIndexName;
-
-            String newType = newTypeOverride != null ? newTypeOverride : request.param("type");
-            String searchType = newTypeOverride != null ? newTypeOverride : request.param("searchType");
-            if (searchType == null || searchType.isEmpty())
-                searchType = newType;
-
-            int searchPort = request.paramAsInt("searchPort", 9200);
-            String searchHost = request.param("searchHost", "localhost");
-            boolean localAction = "localhost".equals(searchHost) && searchPort == 9200;
-            boolean withVersion = request.paramAsBoolean("withVersion", false);
-            int keepTimeInMinutes = request.paramAsInt("keepTimeInMinutes", 30);
-            int hitsPerPage = request.paramAsInt("hitsPerPage", 1000);
-            float waitInSeconds = request.paramAsFloat("waitInSeconds", 0);
-            String basicAuthCredentials = request.param("credentials", "");
-            String filter = request.content().toUtf8();
-            MySearchResponse rsp;
-            if (localAction) {
-                SearchRequestBuilder srb = createScrollSearch(searchIndexName, searchType, filter,
-                        hitsPerPage, withVersion, keepTimeInMinutes);
-                SearchResponse sr = srb.execute().actionGet();
-                rsp = new MySearchResponseES(client, sr, keepTimeInMinutes);
-            } else {
-                // TODO make it possible to restrict to a cluster
-                rsp = new MySearchResponseJson(searchHost, searchPort, searchIndexName, searchType, filter,
-                        basicAuthCredentials, hitsPerPage, withVersion, keepTimeInMinutes);
-            }
-
-            // TODO make async and allow control of process from external (e.g. stopping etc)
-            // or just move stuff into a river?
-            reindex(rsp, newIndexName, newType, withVersion, waitInSeconds);
-
-            // TODO reindex again all new items => therefor we need a timestamp field to filter
-            // + how to combine with existing filter?
-
-            logger.info("Finished reindexing of index " + searchIndexName + " into " + newIndexName + ", query " + filter);
-
-            if (!internalCall)
-                channel.sendResponse(new XContentRestResponse(request, OK, builder));
-        } catch (IOException ex) {
-            if (!internalCall) {
+            if (jobs == null)
+                throw new IllegalStateException("reindex requests require the jobs service of a node");
+            job = jobs.create(request.param("searchIndex", request.param("index"))
+                    + " -> " + request.param("index"));
+            jobs.submit(job, prepareReindex(request, null, job));
+            submitted = true;
+            respond(request, channel, job);
+        } catch (Exception ex) {
+            if (job != null && !submitted)
+                // closes the clients the job might have opened already
+                job.finished(ex);
+            try {
+                channel.sendResponse(new XContentThrowableRestResponse(request, ex));
+            } catch (Exception ex2) {
+                logger.error("problem while rolling index", ex2);
+            }
+        }
+    }
+
+    /**
+     * Sends the status of the submitted job. If the parameter
+     * waitForCompletion is true the status is sent by the thread which
+     * finishes the job, so the HTTP worker is not blocked meanwhile.
+     */
+    void respond(final RestRequest request, final RestChannel channel, final ReIndexJob job) throws IOException {
+        if (!request.paramAsBoolean("waitForCompletion", false)) {
+            sendStatus(request, channel, job);
+            return;
+        }
+        job.onFinished(new Runnable() {
+            @Override public void run() {
                 try {
-                    channel.sendResponse(new XContentThrowableRestResponse(request, ex));
-                } catch (Exception ex2) {
-                    logger.error("problem while rolling index", ex2);
+                    sendStatus(request, channel, job);
+                } catch (Exception ex) {
+                    try {
+                        channel.sendResponse(new XContentThrowableRestResponse(request, ex));
+                    } catch (Exception ex2) {
+                        logger.error("problem while sending the status of reindex job " + job, ex2);
+                    }
                 }
-            } else {
+            }
+        });
+    }
+
+    private void sendStatus(RestRequest request, RestChannel channel, ReIndexJob job) throws IOException {
+        XContentBuilder builder = restContentBuilder(request);
+        job.toXContent(builder, request);
+        channel.sendResponse(new XContentRestResponse(request, OK, builder));
+    }
+
+    /**
+     * Reads all parameters of the request and returns the task which does the
+     * reindexing within the specified job. Nothing is searched or fed until
+     * the task is executed, and the source is only connected then.
+     */
+    public ReIndexTask prepareReindex(RestRequest request, String newTypeOverride, final ReIndexJob job) {
+        final String newIndexName = request.param("index");
+        String searchIndexNameParam = request.param("searchIndex");
+        final String searchIndexName = searchIndexNameParam == null || searchIndexNameParam.isEmpty()
+                ? newIndexName : searchIndexNameParam;
+
+        final String newType = newTypeOverride != null ? newTypeOverride : request.param("type");
+        String searchTypeParam = newTypeOverride != null ? newTypeOverride : request.param("searchType");
+        final String searchType = searchTypeParam == null || searchTypeParam.isEmpty()
+                ? newType : searchTypeParam;
+
+        final String clusterName = request.param("clusterName");
+        // the transport port of a cluster specified by name, the HTTP port otherwise
+        final int searchPort = request.paramAsInt("searchPort", clusterName == null ? 9200 : 9300);
+        final String searchHost = request.param("searchHost", "localhost");
+        final boolean withVersion = request.paramAsBoolean("withVersion", false);
+        final int keepTimeInMinutes = request.paramAsInt("keepTimeInMinutes", 30);
+        final int hitsPerPage = request.paramAsInt("hitsPerPage", 1000);
+        final float waitInSeconds = request.paramAsFloat("waitInSeconds", 0);
+        final String basicAuthCredentials = request.param("credentials", "");
+        final int prefetchPages = request.paramAsInt("prefetchPages", 0);
+        final int parallelism = request.paramAsInt("parallelism", 1);
+        job.throttle().limits(request.paramAsFloat("docsPerSecond", 0),
+                request.paramAsFloat("mbPerSecond", 0));
+        job.backoff(new BackoffPolicy(request.paramAsInt("maxRetries", 3),
+                request.paramAsLong("retryBackoffMillis", 100), request.paramAsLong("maxRetryBackoffMillis", 10000)));
+        job.concurrentBulks(request.paramAsInt("concurrentBulks", 1));
+        job.buffers(new BufferPool(Math.round(request.paramAsFloat("bufferPoolSizeInMB", 32) * (1 << 20))));
+        String targetHost = request.param("targetHost");
+        String targetDump = request.param("targetDump");
+        if (targetHost != null && !targetHost.isEmpty() && targetDump != null && !targetDump.isEmpty())
+            throw new IllegalArgumentException("specify either targetHost or targetDump");
+        if (targetHost != null && !targetHost.isEmpty() && job.sink() == null) {
+            HttpBulkSink sink = new HttpBulkSink(targetHost, request.paramAsInt("targetPort", 9200),
+                    request.param("targetCredentials", ""), request.paramAsBoolean("targetCompression", false),
+                    Math.max(2, parallelism * job.concurrentBulks()),
+                    Math.round(request.paramAsFloat("targetTimeoutInSeconds", 300) * 1000));
+            job.sink(sink);
+            job.closeWhenFinished(sink);
+        } else if (targetDump != null && !targetDump.isEmpty() && job.sink() == null) {
+            FileBulkSink sink = new FileBulkSink(dumpDir(), checkDumpName(targetDump),
+                    Math.round(request.paramAsFloat("targetDumpFileSizeInMB", 256) * (1 << 20)));
+            job.sink(sink);
+            job.closeWhenFinished(sink);
+        }
+        int transformThreads = request.paramAsInt("transformThreads", 0);
+        if (transformThreads > 0) {
+            final ExecutorService transformPool = Executors.newFixedThreadPool(transformThreads,
+                    EsExecutors.daemonThreadFactory(settings, "reindex_transform"));
+            job.transform(transformPool, transformThreads, request.paramAsBoolean("orderedTransform", false));
+            job.closeWhenFinished(new Closeable() {
+                @Override public void close() {
+                    transformPool.shutdownNow();
+                }
+            });
+        }
+        job.bulkLimits(request.paramAsInt("bulkActions", 1000),
+                Math.round(request.paramAsFloat("bulkSizeInMB", 5) * (1 << 20)));
+        long targetBulkMillis = request.paramAsLong("targetBulkMillis", 0);
+        if (targetBulkMillis > 0)
+            job.bulkSize(new AdaptiveBulkSize(hitsPerPage, request.paramAsInt("minBulkSize", 10),
+                    request.paramAsInt("maxBulkSize", 10000), targetBulkMillis));
+        final String filter = parseBody(request, job);
+
+        String checkpointName = request.param("checkpoint");
+        final String timestampField = request.param("timestampField");
+        String searchDump = request.param("searchDump");
+        final int prefixLength = request.paramAsInt("checkpointPrefixLength", 1);
+        final boolean mirror = request.paramAsBoolean("mirror", false);
+        final long maxDeltaDocs = request.paramAsLong("maxDeltaDocs", 100);
+        final float pollIntervalInSeconds = request.paramAsFloat("pollIntervalInSeconds", 10);
+        ReIndexCheckpoint checkpoint = null;
+        List<Callable<MySearchResponse>> dumpReaders = null;
+        if (searchDump != null && !searchDump.isEmpty()) {
+            if (checkpointName != null && !checkpointName.isEmpty()
+                    || timestampField != null && !timestampField.isEmpty())
+                throw new IllegalArgumentException("searchDump supports neither checkpoint nor timestampField");
+            dumpReaders = createDumpReaders(checkDumpName(searchDump), parallelism);
+        } else if (checkpointName != null && !checkpointName.isEmpty()) {
+            // one scroll per id range, the ranges are copied in parallel
+            if (searchType == null || searchType.isEmpty() || searchType.contains(","))
+                throw new IllegalArgumentException("checkpoint requires exactly one searchType but was " + searchType);
+            // all types of one request must not share their ranges
+            if ("*".equals(request.param("type")))
+                checkpointName += "." + searchType;
+            checkpoint = openCheckpoint(checkpointName, searchIndexName + "/" + searchType + " -> "
+                    + newIndexName + "/" + newType + " prefix " + prefixLength + " filter " + filter);
+            if (checkpoint.doneRanges() > 0)
+                logger.info("Resume from checkpoint " + checkpoint.file() + ", skipping "
+                        + checkpoint.doneRanges() + " ranges with " + checkpoint.doneDocs() + " documents");
+        }
+
+        final ReIndexCheckpoint checkpointFinal = checkpoint;
+        final List<Callable<MySearchResponse>> dumpReadersFinal = dumpReaders;
+        // runs in the reindex pool, connecting to a remote cluster waits for netty
+        Callable<Source> source = new Callable<Source>() {
+            @Override public Source call() {
+                // null if the source is searched via HTTP
+                Client searchClient = null;
+                if (clusterName != null && !clusterName.isEmpty()) {
+                    searchClient = createTransportClient(searchHost, searchPort, clusterName);
+                    job.closeWhenFinished(closeable(searchClient));
+                } else if ("localhost".equals(searchHost) && searchPort == 9200)
+                    searchClient = client;
+
+                List<Callable<MySearchResponse>> readers = new ArrayList<Callable<MySearchResponse>>();
+                if (dumpReadersFinal != null)
+                    readers.addAll(dumpReadersFinal);
+                else if (checkpointFinal != null) {
+                    for (String[] range : ReIndexCheckpoint.idRanges(prefixLength)) {
+                        String rangeName = ReIndexCheckpoint.name(range);
+                        if (checkpointFinal.isDone(rangeName))
+                            continue;
+                        readers.add(createCheckpointReader(createReader(searchClient, searchHost, searchPort,
+                                searchIndexName, searchType, uidRangeFilter(filter, searchType, range),
+                                basicAuthCredentials, hitsPerPage, withVersion, keepTimeInMinutes, null,
+                                prefetchPages, job.buffers()), checkpointFinal, rangeName));
+                    }
+                } else
+                    readers.addAll(createReaders(searchClient, searchHost, searchPort, searchIndexName,
+                            searchType, filter, basicAuthCredentials, hitsPerPage, withVersion,
+                            keepTimeInMinutes, prefetchPages, parallelism, job.buffers()));
+
+                DeltaSync delta = timestampField == null || timestampField.isEmpty() ? null
+                        : new DeltaSync(searchClient, searchHost, searchPort, searchIndexName, searchType,
+                        filter, basicAuthCredentials, hitsPerPage, withVersion, keepTimeInMinutes,
+                        prefetchPages, parallelism, timestampField, mirror, maxDeltaDocs, pollIntervalInSeconds);
+                return new Source(readers, delta);
+            }
+        };
+        return new ReIndexTask(source, searchIndexName, filter, newIndexName, newType, withVersion,
+                waitInSeconds, parallelism, job, checkpoint);
+    }
+
+    /**
+     * The readers and the optional delta sync of a task.
+     */
+    static class Source {
+
+        final List<Callable<MySearchResponse>> readers;
+        final DeltaSync delta;
+
+        Source(List<Callable<MySearchResponse>> readers, DeltaSync delta) {
+            this.readers = readers;
+            this.delta = delta;
+        }
+    }
+
+    /**
+     * The body is the filter of the search or an object with the filter, the
+     * field transform and the script like { "filter" : {..}, "transform" :
+     * {..}, "script" : "..", "lang" : "mvel", "params" : {..} }.
+     *
+     * @return the filter
+     */
+    @SuppressWarnings("unchecked")
+    String parseBody(RestRequest request, ReIndexJob job) {
+        String body = request.content().toUtf8();
+        if (body.trim().isEmpty())
+            return body;
+        Map<String, Object> map = XContentHelper.convertToMap(request.content(), true).v2();
+        Object transform = map.get("transform");
+        // a script filter has an object as script
+        Object script = map.get("script");
+        if (!(transform instanceof Map) && !(script instanceof String))
+            return body;
+        if (transform instanceof Map)
+            job.fieldTransform(FieldTransform.parse((Map<String, Object>) transform));
+        if (script instanceof String) {
+            if (scriptService == null)
+                throw new IllegalStateException("scripts require the script service of a node");
+            Object params = map.get("params");
+            job.scriptTransform(new ScriptTransform(scriptService, (String) map.get("lang"), (String) script,
+                    params instanceof Map ? (Map<String, Object>) params : null));
+        }
+        Object filter = map.get("filter");
+        if (!(filter instanceof Map))
+            return "";
+        try {
+            return JsonXContent.contentBuilder().map((Map<String, Object>) filter).string();
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Copies one search into one type: the full pass followed by the delta
+     * passes if a timestamp field was specified.
+     */
+    public class ReIndexTask implements Runnable {
+
+        private final Callable<Source> source;
+        private final String searchIndexName;
+        private final String filter;
+        private final String newIndexName;
+        private final String newType;
+        private final boolean withVersion;
+        private final float waitInSeconds;
+        private final int parallelism;
+        private final ReIndexJob job;
+        private final ReIndexCheckpoint checkpoint;
+        // set when the task runs
+        private volatile DeltaSync delta;
+
+        ReIndexTask(Callable<Source> source, String searchIndexName, String filter,
+                String newIndexName, String newType, boolean withVersion, float waitInSeconds,
+                int parallelism, ReIndexJob job, ReIndexCheckpoint checkpoint) {
+            this.source = source;
+            this.searchIndexName = searchIndexName;
+            this.filter = filter;
+            this.newIndexName = newIndexName;
+            this.newType = newType;
+            this.withVersion = withVersion;
+            this.waitInSeconds = waitInSeconds;
+            this.parallelism = parallelism;
+            this.job = job;
+            this.checkpoint = checkpoint;
+        }
+
+        @Override public void run() {
+            Source src;
+            try {
+                src = source.call();
+            } catch (RuntimeException ex) {
+                throw ex;
+            } catch (Exception ex) {
                 throw new RuntimeException(ex);
             }
+            delta = src.delta;
+            // documents written during the full pass are newer than this mark
+            if (delta != null)
+                delta.start();
+            reindex(src.readers, newIndexName, newType, withVersion, waitInSeconds, parallelism, job);
+            if (checkpoint != null && !job.isCancelled()) {
+                if (checkpoint.failedRanges() > 0)
+                    logger.warn("Keeping checkpoint " + checkpoint.file() + " as " + checkpoint.failedRanges()
+                            + " ranges had failed documents, they are copied again on resume");
+                else {
+                    logger.info("Finished all ranges of checkpoint " + checkpoint.file() + ", deleting it");
+                    checkpoint.delete();
+                }
+            }
+            if (delta != null)
+                delta.run(newIndexName, newType, waitInSeconds, job);
+
+            logger.info("Finished reindexing of index " + searchIndexName + " into " + newIndexName
+                    + ", query " + filter);
+        }
+
+        /**
+         * @return true if the task has run and syncs deltas
+         */
+        public boolean hasDelta() {
+            return delta != null;
+        }
+
+        /**
+         * Runs one more delta pass, e.g. after writes to the source were
+         * blocked.
+         *
+         * @return the number of copied documents
+         */
+        public long finalDelta() {
+            if (delta == null)
+                return 0;
+            return Math.max(0, delta.pass(newIndexName, newType, waitInSeconds, job, true));
+        }
+    }
+
+    /**
+     * Creates a client for a remote cluster with the same version. Its
+     * searches use the binary transport protocol and the sources are passed
+     * as they are stored (might be compressed) instead of JSON. Connecting
+     * waits for a netty future, so this must not be called in a netty thread
+     * like the one of a REST request.
+     */
+    Client createTransportClient(String searchHost, int searchPort, String clusterName) {
+        Settings clientSettings = ImmutableSettings.settingsBuilder()
+                .put("cluster.name", clusterName)
+                .put("client.transport.sniff", false).build();
+        TransportClient transportClient = new TransportClient(clientSettings);
+        transportClient.addTransportAddress(new InetSocketTransportAddress(searchHost, searchPort));
+        if (transportClient.connectedNodes().isEmpty()) {
+            transportClient.close();
+            throw new IllegalStateException("Cannot connect to cluster " + clusterName + " at "
+                    + searchHost + ":" + searchPort);
+        }
+        return transportClient;
+    }
+
+    private static Closeable closeable(final Client client) {
+        return new Closeable() {
+            @Override public void close() {
+                client.close();
+            }
+        };
+    }
+
+    /**
+     * @param searchClient the client of the source cluster or null to search
+     * via HTTP
+     * @return one reader for the specified search or one reader per shard if
+     * parallelism is larger than 1
+     */
+    List<Callable<MySearchResponse>> createReaders(Client searchClient, String searchHost, int searchPort,
+            String searchIndexName, String searchType, String filter, String basicAuthCredentials,
+            int hitsPerPage, boolean withVersion, int keepTimeInMinutes, int prefetchPages, int parallelism,
+            BufferPool buffers) {
+        List<Callable<MySearchResponse>> readers = new ArrayList<Callable<MySearchResponse>>();
+        if (parallelism > 1) {
+            // one scroll per shard
+            int shards;
+            if (searchClient != null)
+                shards = numberOfShards(searchClient, searchIndexName);
+            else
+                shards = MySearchResponseJson.numberOfShards(searchHost, searchPort,
+                        searchIndexName, basicAuthCredentials);
+            for (int shard = 0; shard < shards; shard++) {
+                readers.add(createReader(searchClient, searchHost, searchPort, searchIndexName,
+                        searchType, filter, basicAuthCredentials, hitsPerPage, withVersion,
+                        keepTimeInMinutes, "_shards:" + shard, prefetchPages, buffers));
+            }
+        } else {
+            readers.add(createReader(searchClient, searchHost, searchPort, searchIndexName,
+                    searchType, filter, basicAuthCredentials, hitsPerPage, withVersion,
+                    keepTimeInMinutes, null, prefetchPages, buffers));
+        }
+        return readers;
+    }
+
+    /**
+     * Copies the documents which were changed after the full pass. Every
+     * delta pass searches for documents with a timestamp greater or equal to
+     * the high water mark, which is the newest timestamp of the source before
+     * the previous pass started. Equal timestamps are copied twice rather
+     * than lost.
+     */
+    class DeltaSync {
+
+        final Client searchClient;
+        final String searchHost;
+        final int searchPort;
+        final String searchIndexName;
+        final String searchType;
+        final String filter;
+        final String basicAuthCredentials;
+        final int hitsPerPage;
+        final boolean withVersion;
+        final int keepTimeInMinutes;
+        final int prefetchPages;
+        final int parallelism;
+        final String timestampField;
+        final boolean mirror;
+        final long maxDeltaDocs;
+        final float pollIntervalInSeconds;
+        Object mark;
+
+        DeltaSync(Client searchClient, String searchHost, int searchPort, String searchIndexName,
+                String searchType, String filter, String basicAuthCredentials, int hitsPerPage,
+                boolean withVersion, int keepTimeInMinutes, int prefetchPages, int parallelism,
+                String timestampField, boolean mirror, long maxDeltaDocs, float pollIntervalInSeconds) {
+            this.searchClient = searchClient;
+            this.searchHost = searchHost;
+            this.searchPort = searchPort;
+            this.searchIndexName = searchIndexName;
+            this.searchType = searchType;
+            this.filter = filter;
+            this.basicAuthCredentials = basicAuthCredentials;
+            this.hitsPerPage = hitsPerPage;
+            this.withVersion = withVersion;
+            this.keepTimeInMinutes = keepTimeInMinutes;
+            this.prefetchPages = prefetchPages;
+            this.parallelism = parallelism;
+            this.timestampField = timestampField;
+            this.mirror = mirror;
+            this.maxDeltaDocs = maxDeltaDocs;
+            this.pollIntervalInSeconds = pollIntervalInSeconds;
+        }
+
+        /**
+         * Refreshes the source first, otherwise a document older than the
+         * returned mark could become visible after the pass and would be
+         * skipped by all later passes.
+         *
+         * @return the newest timestamp of the source or null if empty
+         */
+        Object highWaterMark() {
+            if (searchClient != null) {
+                searchClient.admin().indices().refresh(new RefreshRequest(searchIndexName)).actionGet();
+                return maxValue(searchClient, searchIndexName, searchType, timestampField, filter);
+            }
+            MySearchResponseJson.refresh(searchHost, searchPort, searchIndexName, basicAuthCredentials);
+            return MySearchResponseJson.maxValue(searchHost, searchPort, searchIndexName, searchType,
+                    timestampField, filter, basicAuthCredentials);
+        }
+
+        /**
+         * Remembers the newest timestamp before the full pass starts.
+         */
+        void start() {
+            mark = highWaterMark();
+        }
+
+        /**
+         * Copies the documents with a timestamp greater or equal to the mark
+         * and moves the mark. Skipped if no newer document was written unless
+         * forced.
+         *
+         * @return the number of copied documents or -1 if skipped
+         */
+        long pass(String newIndex, String newType, float waitSeconds, ReIndexJob job, boolean force) {
+            Object nextMark = highWaterMark();
+            if (nextMark == null || !force && nextMark.equals(mark))
+                return -1;
+            long before = job.progress().collected();
+            // without a mark the source was empty before, so copy everything
+            String deltaFilter = mark == null ? filter : timestampFilter(filter, timestampField, mark);
+            reindex(createReaders(searchClient, searchHost, searchPort, searchIndexName, searchType,
+                    deltaFilter, basicAuthCredentials, hitsPerPage, withVersion, keepTimeInMinutes,
+                    prefetchPages, parallelism, job.buffers()), newIndex, newType, withVersion, waitSeconds,
+                    parallelism, job);
+            long docs = job.progress().collected() - before;
+            logger.info("Delta pass from " + timestampField + " >= " + mark + " copied " + docs
+                    + " documents into " + newIndex);
+            mark = nextMark;
+            job.highWaterMark(nextMark);
+            return docs;
+        }
+
+        /**
+         * Runs delta passes until a pass copied at most maxDeltaDocs or, in
+         * mirror mode, until the job is cancelled.
+         *
+         * @return the number of documents copied by all delta passes
+         */
+        long run(String newIndex, String newType, float waitSeconds, ReIndexJob job) {
+            long sum = 0;
+            for (int pass = 1; !job.isCancelled(); pass++) {
+                // the first pass copies also documents with the same timestamp as the mark
+                long docs = pass(newIndex, newType, waitSeconds, job, pass == 1);
+                sum += Math.max(0, docs);
+                if (!mirror && docs <= maxDeltaDocs)
+                    break;
+                if (mirror && !job.idle(Math.round(pollIntervalInSeconds * 1000)))
+                    break;
+            }
+            return sum;
+        }
+    }
+
+    /**
+     * @return the newest value of the specified field or null if no document
+     * matches
+     */
+    Object maxValue(Client searchClient, String indexName, String type, String field, String filter) {
+        SearchRequestBuilder srb = searchClient.prepareSearch(indexName).setSize(1).
+                addSort(field, SortOrder.DESC).setNoFields();
+        if (type != null && !type.isEmpty())
+            srb.setTypes(Strings.commaDelimitedListToStringArray(type));
+        if (filter != null && !filter.trim().isEmpty())
+            srb.setFilter(filter);
+        SearchHit[] hits = srb.execute().actionGet().getHits().getHits();
+        if (hits.length == 0 || hits[0].getSortValues().length == 0)
+            return null;
+        return hits[0].getSortValues()[0];
+    }
+
+    /**
+     * @return the specified filter restricted to documents with a timestamp
+     * greater or equal to the specified value
+     */
+    static String timestampFilter(String filter, String field, Object from) {
+        try {
+            String rangeFilter = JsonXContent.contentBuilder().startObject().startObject("range").
+                    startObject(field).field("gte", from).endObject().endObject().endObject().string();
+            if (filter == null || filter.trim().isEmpty())
+                return rangeFilter;
+            return "{ \"and\" : [" + filter + ", " + rangeFilter + "] }";
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Creates the scroll search lazily so that the scroll does not expire
+     * while the reader waits for a free worker.
+     */
+    Callable<MySearchResponse> createReader(final Client searchClient, final String searchHost,
+            final int searchPort, final String searchIndexName, final String searchType,
+            final String filter, final String basicAuthCredentials, final int hitsPerPage,
+            final boolean withVersion, final int keepTimeInMinutes, final String preference,
+            final int prefetchPages, final BufferPool buffers) {
+        return new Callable<MySearchResponse>() {
+            @Override public MySearchResponse call() {
+                MySearchResponse rsp;
+                if (searchClient != null) {
+                    SearchRequestBuilder srb = createScrollSearch(searchClient, searchIndexName, searchType,
+                            filter, hitsPerPage, withVersion, keepTimeInMinutes);
+                    if (preference != null)
+                        srb.setPreference(preference);
+                    SearchResponse sr = srb.execute().actionGet();
+                    rsp = new MySearchResponseES(searchClient, sr, keepTimeInMinutes);
+                } else {
+                    rsp = new MySearchResponseJson(searchHost, searchPort, searchIndexName, searchType, filter,
+                            basicAuthCredentials, hitsPerPage, withVersion, keepTimeInMinutes, preference).
+                            buffers(buffers);
+                }
+                if (prefetchPages > 0)
+                    rsp = new MySearchResponsePrefetch(rsp, prefetchPages);
+                return rsp;
+            }
+        };
+    }
+
+    Callable<MySearchResponse> createCheckpointReader(final Callable<MySearchResponse> reader,
+            final ReIndexCheckpoint checkpoint, final String rangeName) {
+        return new Callable<MySearchResponse>() {
+            @Override public MySearchResponse call() throws Exception {
+                return new MySearchResponseCheckpoint(reader.call(), checkpoint, rangeName);
+            }
+        };
+    }
+
+    /**
+     * @return one reader per file of the specified dump or, if it has fewer
+     * files than parallelism, several readers per file
+     */
+    List<Callable<MySearchResponse>> createDumpReaders(String name, int parallelism) {
+        File[] files = FileBulkSink.files(dumpDir(), name);
+        if (files.length == 0)
+            throw new IllegalArgumentException("dump " + name + " not found in " + dumpDir());
+        int parts = (parallelism + files.length - 1) / files.length;
+        List<Callable<MySearchResponse>> readers = new ArrayList<Callable<MySearchResponse>>();
+        for (final File file : files) {
+            for (final long[] split : MySearchResponseFile.splits(file, parts)) {
+                readers.add(new Callable<MySearchResponse>() {
+                    @Override public MySearchResponse call() throws IOException {
+                        return new MySearchResponseFile(file, split[0], split[1]);
+                    }
+                });
+            }
+        }
+        return readers;
+    }
+
+    File dumpDir() {
+        String dirName = settings.get("reindex.dump_dir");
+        if (dirName != null)
+            return new File(dirName);
+        return new File(new Environment(settings).dataFiles()[0], "reindex/dumps");
+    }
+
+    private static String checkDumpName(String name) {
+        if (!name.matches("[\\w.-]+"))
+            throw new IllegalArgumentException("invalid dump name " + name);
+        return name;
+    }
+
+    ReIndexCheckpoint openCheckpoint(String name, String description) {
+        if (!name.matches("[\\w.-]+"))
+            throw new IllegalArgumentException("invalid checkpoint name " + name);
+        File dir = checkpointDir();
+        try {
+            return new ReIndexCheckpoint(new File(dir, name + ".checkpoint"), description);
+        } catch (IOException ex) {
+            throw new RuntimeException("Cannot read checkpoint " + name + " from " + dir, ex);
         }
     }
 
+    /**
+     * @return the directory of the checkpoints and of the original settings
+     * of a bulk load
+     */
+    File checkpointDir() {
+        String dirName = settings.get("reindex.checkpoint_dir");
+        if (dirName != null)
+            return new File(dirName);
+        return new File(new Environment(settings).dataFiles()[0], "reindex");
+    }
+
+    /**
+     * @return the specified filter restricted to the ids of the specified
+     * range
+     */
+    static String uidRangeFilter(String filter, String type, String[] range) {
+        try {
+            XContentBuilder b = JsonXContent.contentBuilder().startObject().startObject("range").
+                    startObject("_uid");
+            b.field("gte", Uid.createUid(type, range[0] == null ? "" : range[0]));
+            if (range[1] != null)
+                b.field("lt", Uid.createUid(type, range[1]));
+            else
+                // the delimiter is followed by the id, so this is the upper bound of the type
+                b.field("lt", type + (char) (Uid.DELIMITER + 1));
+            String rangeFilter = b.endObject().endObject().endObject().string();
+            if (filter == null || filter.trim().isEmpty())
+                return rangeFilter;
+            return "{ \"and\" : [" + filter + ", " + rangeFilter + "] }";
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * @return the maximum number of shards of the specified local indices
+     */
+    int numberOfShards(String indexName) {
+        return numberOfShards(client, indexName);
+    }
+
+    /**
+     * @return the maximum number of shards of the specified indices of the
+     * cluster of the specified client
+     */
+    int numberOfShards(Client searchClient, String indexName) {
+        MetaData metaData = searchClient.admin().cluster().state(new ClusterStateRequest()).
+                actionGet().getState().metaData();
+        int shards = 0;
+        for (String index : metaData.concreteIndices(Strings.commaDelimitedListToStringArray(indexName))) {
+            shards = Math.max(shards, metaData.index(index).numberOfShards());
+        }
+        return shards;
+    }
+
     public SearchRequestBuilder createScrollSearch(String oldIndexName, String oldType, String filter,
             int hitsPerPage, boolean withVersion, int keepTimeInMinutes) {
-        SearchRequestBuilder srb = client.prepareSearch(oldIndexName).
+        return createScrollSearch(client, oldIndexName, oldType, filter, hitsPerPage, withVersion,
+                keepTimeInMinutes);
+    }
+
+    SearchRequestBuilder createScrollSearch(Client searchClient, String oldIndexName, String oldType,
+            String filter, int hitsPerPage, boolean withVersion, int keepTimeInMinutes) {
+        SearchRequestBuilder srb = searchClient.prepareSearch(oldIndexName).
                 setTypes(oldType).
                 setVersion(withVersion).
                 setSize(hitsPerPage).
@@ -124,82 +807,528 @@ public class ReIndexAction extends BaseRestHandler {
         return srb;
     }
 
-    public int reindex(MySearchResponse rsp, String newIndex, String newType, boolean withVersion,
-            float waitSeconds) {
-        boolean flushEnabled = false;
-        long total = rsp.hits().totalHits();
-        int collectedResults = 0;
-        int failed = 0;
-        while (true) {
-            if (collectedResults > 0 && waitSeconds > 0) {
-                try {
-                    Thread.sleep(Math.round(waitSeconds * 1000));
-                } catch (InterruptedException ex) {
+    /**
+     * Reindexes the specified readers (e.g. one per shard) with up to
+     * 'parallelism' threads. Every thread searches and feeds on its own.
+     *
+     * @return the number of collected documents of all readers
+     */
+    public int reindex(List<Callable<MySearchResponse>> readers, final String newIndex,
+            final String newType, final boolean withVersion, final float waitSeconds,
+            int parallelism, final ReIndexJob job) {
+        if (parallelism <= 1 || readers.size() <= 1) {
+            for (Callable<MySearchResponse> reader : readers) {
+                if (!job.awaitRunning())
                     break;
+                reindex(open(reader), newIndex, newType, withVersion, waitSeconds, job);
+            }
+        } else {
+            ExecutorService pool = Executors.newFixedThreadPool(Math.min(parallelism, readers.size()),
+                    EsExecutors.daemonThreadFactory(settings, "reindex"));
+            try {
+                List<Future<Integer>> futures = new ArrayList<Future<Integer>>(readers.size());
+                for (final Callable<MySearchResponse> reader : readers) {
+                    futures.add(pool.submit(new Callable<Integer>() {
+                        @Override public Integer call() {
+                            if (!job.awaitRunning())
+                                return 0;
+                            return reindex(open(reader), newIndex, newType, withVersion, waitSeconds, job);
+                        }
+                    }));
                 }
+                for (Future<Integer> future : futures) {
+                    future.get();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while reindexing into " + newIndex, ex);
+            } catch (ExecutionException ex) {
+                job.cancel();
+                throw new RuntimeException("Problem while reindexing into " + newIndex, ex.getCause());
+            } finally {
+                pool.shutdownNow();
             }
-            StopWatch queryWatch = new StopWatch().start();
-            int currentResults = rsp.doScoll();
-            if (currentResults == 0)
-                break;
-
-            MySearchHits res = callback(rsp.hits());
-            if (res == null)
-                break;
-            queryWatch.stop();
-            StopWatch updateWatch = new StopWatch().start();
-            failed += bulkUpdate(res, newIndex, newType, withVersion).size();
-            if (flushEnabled)
-                client.admin().indices().flush(new FlushRequest(newIndex)).actionGet();
-
-            updateWatch.stop();
-            collectedResults += currentResults;
-            logger.debug("Progress " + collectedResults + "/" + total
-                    + ". Time of update:" + updateWatch.totalTime().getSeconds() + " query:"
-                    + queryWatch.totalTime().getSeconds() + " failed:" + failed);
-        }
-        String str = "found " + total + ", collected:" + collectedResults
-                + ", transfered:" + (float) rsp.bytes() / (1 << 20) + "MB";
-        if (failed > 0)
-            logger.warn(failed + " FAILED documents! " + str);
+        }
+
+        ReIndexProgress progress = job.progress();
+        if (progress.failed() > 0)
+            logger.warn(progress.failed() + " FAILED documents! " + progress);
         else
-            logger.info(str);
+            logger.info(progress.toString());
+        return (int) progress.collected();
+    }
+
+    private MySearchResponse open(Callable<MySearchResponse> reader) {
+        try {
+            return reader.call();
+        } catch (RuntimeException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    public int reindex(MySearchResponse rsp, String newIndex, String newType, boolean withVersion,
+            float waitSeconds) {
+        ReIndexJob job = new ReIndexJob("", newIndex);
+        int collectedResults = reindex(rsp, newIndex, newType, withVersion, waitSeconds, job);
+        ReIndexProgress progress = job.progress();
+        if (progress.failed() > 0)
+            logger.warn(progress.failed() + " FAILED documents! " + progress);
+        else
+            logger.info(progress.toString());
         return collectedResults;
     }
 
-    Collection<Integer> bulkUpdate(MySearchHits objects, String indexName,
-            String newType, boolean withVersion) {
-        BulkRequestBuilder brb = client.prepareBulk();
-        for (MySearchHit hit : objects.getHits()) {
-            if (hit.id() == null || hit.id().isEmpty()) {
-                logger.warn("Skipped object without id when bulkUpdate:" + hit);
-                continue;
+    /**
+     * Reindexes all pages of the specified response and reports into the
+     * progress of the specified job. Stops if the job gets cancelled.
+     *
+     * @return the number of collected documents of the specified response
+     */
+    public int reindex(MySearchResponse rsp, String newIndex, String newType, boolean withVersion,
+            float waitSeconds, ReIndexJob job) {
+        TransformStage stage = new TransformStage(job);
+        try {
+            job.progress().addTotal(rsp.hits().totalHits());
+            int collectedResults = 0;
+            long bytes = 0;
+            long wireBytes = 0;
+            boolean stopped = false;
+            ReIndexStats stats = job.stats();
+            MySearchResponse inner = rsp instanceof MySearchResponseCheckpoint
+                    ? ((MySearchResponseCheckpoint) rsp).wrapped() : rsp;
+            MySearchResponsePrefetch prefetch = inner instanceof MySearchResponsePrefetch
+                    ? (MySearchResponsePrefetch) inner : null;
+            BulkAccumulator bulk = new BulkAccumulator(newIndex, newType, withVersion, job);
+            Page page;
+            while (!stopped) {
+                if (!job.awaitRunning()) {
+                    stopped = true;
+                    break;
+                }
+                long pauseMillis = job.bulkSize() == null ? 0 : job.bulkSize().pauseMillis();
+                if (collectedResults > 0 && waitSeconds > 0)
+                    pauseMillis += Math.round(waitSeconds * 1000);
+                if (pauseMillis > 0) {
+                    try {
+                        Thread.sleep(pauseMillis);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        stopped = true;
+                        break;
+                    }
+                }
+                if (prefetch != null)
+                    stats.prefetchQueue(prefetch.queued());
+                stats.transformQueue(stage.pending());
+                stats.bulksInFlight(bulk.inFlight());
+                StopWatch queryWatch = new StopWatch().start();
+                int currentResults = rsp.doScoll();
+                queryWatch.stop();
+                long pageBytes = rsp.bytes() - bytes;
+                bytes = rsp.bytes();
+                long pageWireBytes = rsp.wireBytes() - wireBytes;
+                wireBytes = rsp.wireBytes();
+                if (currentResults == 0)
+                    break;
+
+                stats.scroll(currentResults, pageWireBytes, queryWatch.totalTime().micros());
+                stage.submit(new Page(rsp.hits(), currentResults, pageBytes, rsp.pageBuffer()));
+                // blocks only if the maximum number of pages is in transformation
+                boolean wait = stage.isFull();
+                while (!stopped && (page = stage.poll(wait)) != null) {
+                    wait = false;
+                    stopped = !write(page, bulk, job);
+                    if (!stopped)
+                        collectedResults += page.docs;
+                }
+            }
+            // the pages which are still in transformation
+            while (!stopped && (page = stage.poll(true)) != null) {
+                stopped = !write(page, bulk, job);
+                if (!stopped)
+                    collectedResults += page.docs;
+            }
+            // the remaining documents of the last pages
+            int lastFailed = bulk.flush();
+            job.progress().addFailed(lastFailed);
+            stats.failed(lastFailed);
+            // a stopped reader has not fed the rest of its range
+            if (!stopped && !job.isCancelled() && rsp instanceof MySearchResponseCheckpoint)
+                ((MySearchResponseCheckpoint) rsp).done(bulk.failed().size());
+            return collectedResults;
+        } finally {
+            stage.cancel();
+            if (rsp instanceof Closeable) {
+                try {
+                    ((Closeable) rsp).close();
+                } catch (IOException ex) {
+                    logger.warn("Cannot close scroll " + rsp.scrollId(), ex);
+                }
             }
+        }
+    }
+
+    /**
+     * Feeds one transformed page and reports it into the progress of the job.
+     *
+     * @return false if the reader should stop
+     */
+    private boolean write(Page page, BulkAccumulator bulk, ReIndexJob job) {
+        if (page.hits == null)
+            return false;
+        StopWatch updateWatch = new StopWatch();
+        int failed;
+        try {
+            job.throttle().acquire(page.docs, page.bytes);
+            if (job.isCancelled())
+                return false;
+            updateWatch.start();
+            failed = bulk.add(page.hits, page.buffer);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            // the bulk requests hold their own references
+            if (page.buffer != null)
+                page.buffer.release();
+        }
+        updateWatch.stop();
+        ReIndexProgress progress = job.progress();
+        progress.addCollected(page.docs);
+        progress.addFailed(failed);
+        progress.addBytes(page.bytes);
+        job.stats().failed(failed);
+        logger.debug("Progress " + progress.collected() + "/" + progress.total()
+                + ". Time of update:" + updateWatch.totalTime().millis() + "ms failed:" + progress.failed()
+                + (job.bulkSize() == null ? "" : " " + job.bulkSize()));
+        return true;
+    }
+
+    /**
+     * The hits of one page with the number of documents and bytes it was
+     * read with and the pooled buffer they reference, if any.
+     */
+    static class Page {
+
+        final MySearchHits hits;
+        final int docs;
+        final long bytes;
+        final BufferPool.Buffer buffer;
+
+        Page(MySearchHits hits, int docs, long bytes, BufferPool.Buffer buffer) {
+            this.hits = hits;
+            this.docs = docs;
+            this.bytes = bytes;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * Transforms the pages of one reader. Without a transform pool every page
+     * is transformed in the reader thread. Otherwise up to two pages per
+     * transform thread are transformed in the pool while the reader continues
+     * to scroll, and the pages are returned in the order they were read if
+     * the job requires it or else as soon as they are transformed. Used from
+     * one reader thread only.
+     */
+    class TransformStage {
 
+        private final ReIndexJob job;
+        private final ExecutorService pool;
+        private final int window;
+        private final CompletionService<Page> completion;
+        private final LinkedList<Future<Page>> pending = new LinkedList<Future<Page>>();
+        // the buffers of the pending pages, transform keeps the buffer of a page
+        private final Map<Future<Page>, BufferPool.Buffer> pendingBuffers = new HashMap<Future<Page>, BufferPool.Buffer>();
+        private final LinkedList<Page> transformed = new LinkedList<Page>();
+
+        TransformStage(ReIndexJob job) {
+            this.job = job;
+            this.pool = job.transformPool();
+            this.window = 2 * Math.max(1, job.transformThreads());
+            this.completion = pool == null || job.orderedTransform() ? null
+                    : new ExecutorCompletionService<Page>(pool);
+        }
+
+        void submit(final Page page) {
+            if (pool == null) {
+                transformed.add(transform(page));
+                return;
+            }
+            Callable<Page> task = new Callable<Page>() {
+                @Override public Page call() {
+                    return transform(page);
+                }
+            };
+            Future<Page> future = completion == null ? pool.submit(task) : completion.submit(task);
+            pending.add(future);
+            pendingBuffers.put(future, page.buffer);
+        }
+
+        boolean isFull() {
+            return pending.size() >= window;
+        }
+
+        /**
+         * @return the number of pages in transformation
+         */
+        int pending() {
+            return pending.size();
+        }
+
+        /**
+         * @return the next transformed page or null if no page is pending or,
+         * without waiting, no page is transformed yet
+         */
+        Page poll(boolean wait) {
+            if (pool == null)
+                return transformed.poll();
+            if (pending.isEmpty())
+                return null;
+            Future<Page> future;
+            Page page;
             try {
-                IndexRequest indexReq = Requests.indexRequest(indexName).type(newType).id(hit.id()).source(hit.source());
-                if (withVersion)
-                    indexReq.version(hit.version());
+                if (completion == null) {
+                    future = pending.peek();
+                    if (!wait && !future.isDone())
+                        return null;
+                } else {
+                    future = wait ? completion.take() : completion.poll();
+                    if (future == null)
+                        return null;
+                }
+                // still pending if interrupted, so cancel releases its buffer
+                page = future.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                // stops the reader
+                return new Page(null, 0, 0, null);
+            } catch (ExecutionException ex) {
+                throw new RuntimeException("Problem while transforming a page", ex.getCause());
+            }
+            pending.remove(future);
+            pendingBuffers.remove(future);
+            return page;
+        }
 
-                brb.add(indexReq);
-            } catch (Exception ex) {
-                logger.warn("Cannot add object:" + hit + " to bulkIndexing action." + ex.getMessage());
+        /**
+         * Drops the pages which are still in transformation or not written
+         * yet and releases their buffers.
+         */
+        void cancel() {
+            for (Future<Page> future : pending) {
+                future.cancel(true);
+                BufferPool.Buffer buffer = pendingBuffers.get(future);
+                if (buffer != null)
+                    buffer.release();
+            }
+            pending.clear();
+            pendingBuffers.clear();
+            Page page;
+            while ((page = transformed.poll()) != null) {
+                if (page.buffer != null)
+                    page.buffer.release();
             }
         }
-        if (brb.numberOfActions() > 0) {
-            BulkResponse rsp = brb.execute().actionGet();
-            if (rsp.hasFailures()) {
-                List<Integer> list = new ArrayList<Integer>(rsp.getItems().length);
-                for (BulkItemResponse br : rsp.getItems()) {
-                    if (br.isFailed())
-                        list.add(br.getItemId());
+
+        private Page transform(Page page) {
+            StopWatch watch = new StopWatch().start();
+            MySearchHits res = page.hits;
+            if (job.fieldTransform() != null)
+                res = job.fieldTransform().transform(res);
+            if (job.scriptTransform() != null)
+                res = job.scriptTransform().transform(res);
+            res = transforms.get().transform(res);
+            watch.stop();
+            job.stats().transform(watch.totalTime().micros());
+            return new Page(res, page.docs, page.bytes, page.buffer);
+        }
+    }
+
+    Collection<Integer> bulkUpdate(MySearchHits objects, String indexName,
+            String newType, boolean withVersion) {
+        return bulkUpdate(objects, indexName, newType, withVersion, new ReIndexJob("", indexName));
+    }
+
+    /**
+     * Feeds the specified hits in bulk requests limited like the ones of the
+     * reindex loop and waits until all of them are finished. Failed items are
+     * retried according to the backoff policy of the job.
+     *
+     * @return the positions of the hits which still failed after all retries
+     */
+    Collection<Integer> bulkUpdate(MySearchHits objects, String indexName,
+            String newType, boolean withVersion, ReIndexJob job) {
+        BulkAccumulator bulk = new BulkAccumulator(indexName, newType, withVersion, job);
+        bulk.add(objects);
+        bulk.flush();
+        return bulk.failed();
+    }
+
+    /**
+     * Collects the index requests of several pages and feeds them as soon as
+     * the action or the byte limit of the job is reached, whichever comes
+     * first. So the small documents of several pages are merged into one bulk
+     * request and a page of large documents is split. If the job has a bulk
+     * size controller it decides the number of actions and gets the latency
+     * of every request reported. The requests are executed by a BulkWriter.
+     * Used from one reader thread only.
+     */
+    class BulkAccumulator {
+
+        private final String indexName;
+        private final String newType;
+        private final boolean withVersion;
+        private final ReIndexJob job;
+        private final BulkWriter writer;
+        private BulkRequestBuilder brb = client.prepareBulk();
+        private List<BufferPool.Buffer> buffers = new ArrayList<BufferPool.Buffer>();
+        private long bytes;
+        private int offset;
+
+        BulkAccumulator(String indexName, String newType, boolean withVersion, ReIndexJob job) {
+            this.indexName = indexName;
+            this.newType = newType;
+            this.withVersion = withVersion;
+            this.job = job;
+            this.writer = new BulkWriter(job.sink() == null ? new ClientBulkSink(client) : job.sink(), job);
+        }
+
+        /**
+         * Adds the specified hits and feeds every bulk request which gets
+         * full.
+         *
+         * @return the number of documents which failed in the fed requests
+         */
+        int add(MySearchHits hits) {
+            return add(hits, null);
+        }
+
+        /**
+         * Adds the specified hits which reference the specified buffer. Every
+         * bulk request with one of the hits retains the buffer until it is
+         * finished. The caller releases its own reference afterwards.
+         */
+        int add(MySearchHits hits, BufferPool.Buffer buffer) {
+            int failedBefore = writer.failed().size();
+            for (MySearchHit hit : hits.getHits()) {
+                if (hit.id() == null || hit.id().isEmpty()) {
+                    logger.warn("Skipped object without id when bulkUpdate:" + hit);
+                    continue;
+                }
+
+                try {
+                    brb.add(createIndexRequest(hit, indexName, newType, withVersion));
+                    if (buffer != null && !buffers.contains(buffer)) {
+                        buffer.retain();
+                        buffers.add(buffer);
+                    }
+                    bytes += hit.sourceRef().length();
+                    job.stats().sourceBytes(hit.sourceRef().length());
+                } catch (Exception ex) {
+                    logger.warn("Cannot add object:" + hit + " to bulkIndexing action." + ex.getMessage());
                 }
-                return list;
+                if (isFull())
+                    feed();
+            }
+            // only this reader feeds the pages of the pending request, so it
+            // must not wait for them when it reads the next page
+            if (buffer != null && !buffers.isEmpty() && buffer.pool().mustWait(buffer.array().length))
+                feed();
+            return writer.failed().size() - failedBefore;
+        }
+
+        private boolean isFull() {
+            AdaptiveBulkSize bulkSize = job.bulkSize();
+            int maxActions = bulkSize == null ? job.bulkActions() : bulkSize.size();
+            long maxBytes = job.bulkBytes();
+            return maxActions > 0 && brb.numberOfActions() >= maxActions
+                    || maxBytes > 0 && bytes >= maxBytes;
+        }
+
+        /**
+         * Feeds the pending requests and waits for all requests in flight.
+         *
+         * @return the number of documents which failed
+         */
+        int flush() {
+            int failedBefore = writer.failed().size();
+            if (brb.numberOfActions() > 0)
+                feed();
+            writer.flush();
+            return writer.failed().size() - failedBefore;
+        }
+
+        private void feed() {
+            List<ActionRequest<?>> requests = new ArrayList<ActionRequest<?>>(brb.numberOfActions());
+            for (ActionRequest<?> req : brb.request().requests()) {
+                requests.add(req);
             }
+            writer.execute(requests, offset, buffers);
+            offset += brb.numberOfActions();
+            brb = client.prepareBulk();
+            buffers = new ArrayList<BufferPool.Buffer>();
+            bytes = 0;
+        }
+
+        /**
+         * @return the positions of all added hits which failed after all
+         * retries
+         */
+        List<Integer> failed() {
+            return writer.failed();
         }
-        return Collections.emptyList();
+
+        int inFlight() {
+            return writer.inFlight();
+        }
+    }
+
+    static IndexRequest createIndexRequest(MySearchHit hit, String indexName, String newType,
+            boolean withVersion) {
+        // pass the source as it is (might be compressed) to avoid decompressing and copying
+        IndexRequest indexReq = Requests.indexRequest(indexName).type(newType).id(hit.id()).
+                source(hit.sourceRef(), false);
+        if (withVersion)
+            indexReq.version(hit.version());
+        return indexReq;
+    }
+
+    static boolean isRejected(String failureMessage) {
+        return failureMessage != null && failureMessage.contains("EsRejectedExecutionException");
+    }
+
+    /**
+     * Failures caused by the document itself like a mapping error or a
+     * version conflict will fail again and are not retried.
+     */
+    static boolean isRetryable(String failureMessage) {
+        if (failureMessage == null)
+            return true;
+        return !failureMessage.contains("MapperParsingException")
+                && !failureMessage.contains("VersionConflictEngineException")
+                && !failureMessage.contains("DocumentAlreadyExistsException")
+                && !failureMessage.contains("ElasticSearchParseException");
+    }
+
+    /**
+     * Creates the transform of one reader or transform thread. Override it to
+     * keep state per thread, the default transform calls callback.
+     */
+    protected HitTransform createTransform() {
+        return new HitTransform() {
+            @Override public MySearchHits transform(MySearchHits hits) {
+                return callback(hits);
+            }
+        };
     }
 
+    /**
+     * Transforms the hits of one page. Called concurrently if the job has
+     * transform threads.
+     */
     protected MySearchHits callback(MySearchHits hits) {
         return hits;
     }
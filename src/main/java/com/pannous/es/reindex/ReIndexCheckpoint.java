@@ -0,0 +1,171 @@
+/*
+ *  Copyright 2026 the Reindex Plugin contributors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.pannous.es.reindex;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Remembers which _uid ranges of a reindex run are completely copied. The
+ * ranges are split by the first characters of the document ids and every
+ * completed range is appended to a local file and synced, so a restarted run
+ * with the same checkpoint only copies the ranges which were not finished.
+ */
+public class ReIndexCheckpoint {
+
+    // the characters of auto generated ids in ascending order
+    static final String ID_CHARS = "-0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ_abcdefghijklmnopqrstuvwxyz";
+    private final File file;
+    private final String description;
+    private final Map<String, Long> done = new HashMap<String, Long>();
+    private final Set<String> failed = new HashSet<String>();
+
+    /**
+     * Loads the specified checkpoint file if it exists. Throws an
+     * IllegalArgumentException if it was written for a different reindex
+     * run.
+     */
+    public ReIndexCheckpoint(File file, String description) throws IOException {
+        this.file = file;
+        this.description = description.replaceAll("\\s+", " ");
+        if (file.exists())
+            load();
+    }
+
+    private void load() throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String header = reader.readLine();
+            if (header != null && !header.equals("# " + description))
+                throw new IllegalArgumentException("checkpoint " + file + " belongs to a different reindex run: "
+                        + header.substring(Math.min(2, header.length())));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int index = line.lastIndexOf(' ');
+                // ignore an incomplete last line
+                if (index < 0 || !line.endsWith(";"))
+                    continue;
+                done.put(line.substring(0, index), Long.parseLong(line.substring(index + 1, line.length() - 1)));
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    public File file() {
+        return file;
+    }
+
+    public synchronized boolean isDone(String range) {
+        return done.containsKey(range);
+    }
+
+    public synchronized int doneRanges() {
+        return done.size();
+    }
+
+    public synchronized long doneDocs() {
+        long sum = 0;
+        for (Long docs : done.values()) {
+            sum += docs;
+        }
+        return sum;
+    }
+
+    /**
+     * Marks the specified range as completely copied and syncs the file.
+     */
+    public synchronized void done(String range, long docs) throws IOException {
+        boolean create = !file.exists();
+        if (create)
+            file.getParentFile().mkdirs();
+        FileOutputStream os = new FileOutputStream(file, true);
+        try {
+            StringBuilder sb = new StringBuilder();
+            if (create)
+                sb.append("# ").append(description).append('\n');
+            sb.append(range).append(' ').append(docs).append(";\n");
+            os.write(sb.toString().getBytes("UTF-8"));
+            os.getFD().sync();
+        } finally {
+            os.close();
+        }
+        done.put(range, docs);
+    }
+
+    /**
+     * Remembers that documents of the specified range failed after all
+     * retries. The range is not marked as done.
+     */
+    public synchronized void failed(String range) {
+        failed.add(range);
+    }
+
+    /**
+     * @return the number of ranges of this run with failed documents
+     */
+    public synchronized int failedRanges() {
+        return failed.size();
+    }
+
+    public synchronized void delete() {
+        file.delete();
+    }
+
+    /**
+     * Splits all ids into ranges by their first prefixLength characters.
+     * Every range is a pair of the inclusive lower and the exclusive upper
+     * bound where null means unbounded.
+     */
+    public static List<String[]> idRanges(int prefixLength) {
+        List<String> bounds = new ArrayList<String>();
+        bounds.add("");
+        for (int i = 0; i < prefixLength; i++) {
+            List<String> tmp = new ArrayList<String>(bounds.size() * ID_CHARS.length());
+            for (String b : bounds) {
+                for (int c = 0; c < ID_CHARS.length(); c++) {
+                    tmp.add(b + ID_CHARS.charAt(c));
+                }
+            }
+            bounds = tmp;
+        }
+        List<String[]> ranges = new ArrayList<String[]>(bounds.size() + 1);
+        String from = null;
+        for (String to : bounds) {
+            ranges.add(new String[]{from, to});
+            from = to;
+        }
+        ranges.add(new String[]{from, null});
+        return ranges;
+    }
+
+    /**
+     * @return the key of the specified range within the checkpoint file
+     */
+    public static String name(String[] range) {
+        return range[0] == null ? "*" : range[0];
+    }
+}
@@ -0,0 +1,498 @@
+/*
+ *  Copyright 2026 the Reindex Plugin contributors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.pannous.es.reindex;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * State of one reindex run which can be paused, resumed and cancelled from
+ * another thread. The reindex threads call awaitRunning before every page.
+ */
+public class ReIndexJob implements ToXContent {
+
+    public enum State {
+
+        QUEUED, RUNNING, PAUSED, CANCELLED, DONE, FAILED
+    }
+    private static final ESLogger logger = Loggers.getLogger(ReIndexJob.class);
+    private final String id;
+    private final String description;
+    private final ReIndexProgress progress = new ReIndexProgress();
+    private final ReIndexStats stats;
+    private final ReIndexThrottle throttle = new ReIndexThrottle();
+    private final CountDownLatch done = new CountDownLatch(1);
+    private State state = State.QUEUED;
+    private long startTime;
+    private long endTime;
+    private long pauseStartTime;
+    private long pausedMillis;
+    private String error;
+    private Object highWaterMark;
+    private long blackoutMillis = -1;
+    private volatile AdaptiveBulkSize bulkSize;
+    private volatile BackoffPolicy backoff = new BackoffPolicy(3, 100, 10000);
+    private volatile int bulkActions = 1000;
+    private volatile long bulkBytes = 5 << 20;
+    private volatile int concurrentBulks = 1;
+    private volatile BulkSink sink;
+    private volatile ExecutorService transformPool;
+    private volatile int transformThreads;
+    private volatile boolean orderedTransform;
+    private volatile FieldTransform fieldTransform;
+    private volatile ScriptTransform scriptTransform;
+    private volatile BufferPool buffers = new BufferPool(32 << 20);
+    private final List<Closeable> resources = new ArrayList<Closeable>();
+    private final List<Runnable> finishListeners = new ArrayList<Runnable>();
+
+    public ReIndexJob(String id, String description) {
+        this(id, description, null);
+    }
+
+    /**
+     * @param nodeStats receives all values of the stats of this job too
+     */
+    public ReIndexJob(String id, String description, ReIndexStats nodeStats) {
+        this.id = id;
+        this.description = description;
+        this.stats = new ReIndexStats(nodeStats);
+    }
+
+    public String id() {
+        return id;
+    }
+
+    public String description() {
+        return description;
+    }
+
+    public ReIndexProgress progress() {
+        return progress;
+    }
+
+    public ReIndexStats stats() {
+        return stats;
+    }
+
+    /**
+     * @return the rate limits of this job which can be changed while it is
+     * running
+     */
+    public ReIndexThrottle throttle() {
+        return throttle;
+    }
+
+    /**
+     * @return the bulk size controller or null if every page should be fed
+     * as one bulk request
+     */
+    public AdaptiveBulkSize bulkSize() {
+        return bulkSize;
+    }
+
+    public ReIndexJob bulkSize(AdaptiveBulkSize bulkSize) {
+        this.bulkSize = bulkSize;
+        return this;
+    }
+
+    /**
+     * @return the maximum number of documents of one bulk request or 0 if
+     * unlimited. Ignored if the job has a bulk size controller.
+     */
+    public int bulkActions() {
+        return bulkActions;
+    }
+
+    /**
+     * @return the maximum number of source bytes of one bulk request or 0 if
+     * unlimited
+     */
+    public long bulkBytes() {
+        return bulkBytes;
+    }
+
+    /**
+     * Limits every bulk request to the specified number of documents or
+     * source bytes, whichever is reached first.
+     */
+    public ReIndexJob bulkLimits(int bulkActions, long bulkBytes) {
+        this.bulkActions = bulkActions;
+        this.bulkBytes = bulkBytes;
+        return this;
+    }
+
+    /**
+     * @return the maximum number of bulk requests one reader keeps in flight
+     */
+    public int concurrentBulks() {
+        return concurrentBulks;
+    }
+
+    public ReIndexJob concurrentBulks(int concurrentBulks) {
+        this.concurrentBulks = concurrentBulks;
+        return this;
+    }
+
+    /**
+     * @return where the documents are written to or null for the cluster of
+     * this node
+     */
+    public BulkSink sink() {
+        return sink;
+    }
+
+    public ReIndexJob sink(BulkSink sink) {
+        this.sink = sink;
+        return this;
+    }
+
+    /**
+     * @return the pool which transforms the pages of all readers or null if
+     * every reader transforms its pages itself
+     */
+    public ExecutorService transformPool() {
+        return transformPool;
+    }
+
+    public int transformThreads() {
+        return transformThreads;
+    }
+
+    /**
+     * @return true if the transformed pages are fed in the order they were
+     * read, otherwise as soon as they are transformed
+     */
+    public boolean orderedTransform() {
+        return orderedTransform;
+    }
+
+    /**
+     * Transforms the pages in the specified pool with the specified number of
+     * threads while the readers continue to scroll.
+     */
+    public ReIndexJob transform(ExecutorService pool, int threads, boolean ordered) {
+        this.transformPool = pool;
+        this.transformThreads = threads;
+        this.orderedTransform = ordered;
+        return this;
+    }
+
+    /**
+     * @return the transform of the request which is applied before the
+     * transform of the action or null
+     */
+    public FieldTransform fieldTransform() {
+        return fieldTransform;
+    }
+
+    public ReIndexJob fieldTransform(FieldTransform fieldTransform) {
+        this.fieldTransform = fieldTransform;
+        return this;
+    }
+
+    /**
+     * @return the script of the request which is applied after the field
+     * transform or null
+     */
+    public ScriptTransform scriptTransform() {
+        return scriptTransform;
+    }
+
+    public ReIndexJob scriptTransform(ScriptTransform scriptTransform) {
+        this.scriptTransform = scriptTransform;
+        return this;
+    }
+
+    /**
+     * @return the pool of the arrays which hold the pages read via HTTP until
+     * their documents are indexed
+     */
+    public BufferPool buffers() {
+        return buffers;
+    }
+
+    public ReIndexJob buffers(BufferPool buffers) {
+        this.buffers = buffers;
+        return this;
+    }
+
+    /**
+     * @return the policy for retrying failed bulk items
+     */
+    public BackoffPolicy backoff() {
+        return backoff;
+    }
+
+    public ReIndexJob backoff(BackoffPolicy backoff) {
+        this.backoff = backoff;
+        return this;
+    }
+
+    /**
+     * @return the time in milliseconds where writes were blocked during the
+     * cutover or -1
+     */
+    public synchronized long blackoutMillis() {
+        return blackoutMillis;
+    }
+
+    synchronized void blackoutMillis(long blackoutMillis) {
+        this.blackoutMillis = blackoutMillis;
+    }
+
+    public synchronized State state() {
+        return state;
+    }
+
+    public synchronized String error() {
+        return error;
+    }
+
+    /**
+     * @return the newest timestamp which was copied by the delta sync
+     */
+    public synchronized Object highWaterMark() {
+        return highWaterMark;
+    }
+
+    synchronized void highWaterMark(Object highWaterMark) {
+        this.highWaterMark = highWaterMark;
+    }
+
+    synchronized void started() {
+        if (state == State.QUEUED)
+            state = State.RUNNING;
+        startTime = System.currentTimeMillis();
+    }
+
+    void finished(Throwable ex) {
+        List<Runnable> listeners;
+        synchronized (this) {
+            finishedLocked(ex);
+            listeners = new ArrayList<Runnable>(finishListeners);
+            finishListeners.clear();
+        }
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+    }
+
+    private void finishedLocked(Throwable ex) {
+        if (ex != null) {
+            state = State.FAILED;
+            error = ex.getMessage() == null ? ex.getClass().getSimpleName() : ex.getMessage();
+        } else if (state != State.CANCELLED)
+            state = State.DONE;
+        if (pauseStartTime > 0)
+            resume();
+        endTime = System.currentTimeMillis();
+        for (Closeable resource : resources) {
+            try {
+                resource.close();
+            } catch (IOException closeEx) {
+                logger.warn("Cannot close resource of reindex job " + id, closeEx);
+            }
+        }
+        resources.clear();
+        notifyAll();
+        done.countDown();
+    }
+
+    /**
+     * Runs the specified listener in the thread which finishes the job or
+     * immediately if the job is already finished. The listener must not
+     * throw.
+     */
+    public void onFinished(Runnable listener) {
+        synchronized (this) {
+            if (done.getCount() > 0) {
+                finishListeners.add(listener);
+                return;
+            }
+        }
+        listener.run();
+    }
+
+    /**
+     * Closes the specified resource, e.g. a client of another cluster, when
+     * the job is finished.
+     */
+    public synchronized void closeWhenFinished(Closeable resource) {
+        resources.add(resource);
+    }
+
+    public synchronized boolean pause() {
+        if (state != State.RUNNING && state != State.QUEUED)
+            return false;
+        state = State.PAUSED;
+        pauseStartTime = System.currentTimeMillis();
+        return true;
+    }
+
+    public synchronized boolean resume() {
+        if (pauseStartTime > 0) {
+            pausedMillis += System.currentTimeMillis() - pauseStartTime;
+            pauseStartTime = 0;
+        }
+        if (state != State.PAUSED)
+            return false;
+        state = State.RUNNING;
+        notifyAll();
+        return true;
+    }
+
+    public synchronized boolean cancel() {
+        if (isFinished())
+            return false;
+        if (pauseStartTime > 0)
+            resume();
+        state = State.CANCELLED;
+        throttle.close();
+        notifyAll();
+        return true;
+    }
+
+    public synchronized boolean isCancelled() {
+        return state == State.CANCELLED;
+    }
+
+    public synchronized boolean isFinished() {
+        return state == State.CANCELLED || state == State.DONE || state == State.FAILED;
+    }
+
+    /**
+     * Blocks while the job is paused.
+     *
+     * @return false if the job was cancelled and the caller should stop
+     */
+    public synchronized boolean awaitRunning() {
+        try {
+            while (state == State.PAUSED) {
+                wait();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return state != State.CANCELLED;
+    }
+
+    /**
+     * Waits the specified time unless the job gets cancelled. A paused job
+     * waits until it is resumed.
+     *
+     * @return false if the job was cancelled and the caller should stop
+     */
+    public synchronized boolean idle(long millis) {
+        long end = System.currentTimeMillis() + millis;
+        try {
+            for (long rest = millis; rest > 0 && state != State.CANCELLED;
+                    rest = end - System.currentTimeMillis()) {
+                wait(rest);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return awaitRunning();
+    }
+
+    /**
+     * Blocks until the job is done, failed or cancelled.
+     */
+    public void awaitFinished() throws InterruptedException {
+        done.await();
+    }
+
+    /**
+     * @return the time in milliseconds where the job was really running
+     */
+    public synchronized long runningMillis() {
+        if (startTime == 0)
+            return 0;
+        long end = endTime > 0 ? endTime : System.currentTimeMillis();
+        long paused = pausedMillis;
+        if (pauseStartTime > 0)
+            paused += end - pauseStartTime;
+        return Math.max(0, end - startTime - paused);
+    }
+
+    public float docsPerSecond() {
+        long millis = runningMillis();
+        if (millis == 0)
+            return 0;
+        return progress.collected() * 1000f / millis;
+    }
+
+    /**
+     * @return estimated remaining time in seconds or -1 if unknown
+     */
+    public long etaInSeconds() {
+        float rate = docsPerSecond();
+        long remaining = progress.total() - progress.collected();
+        if (rate <= 0 || remaining < 0)
+            return -1;
+        return Math.round(remaining / rate);
+    }
+
+    @Override public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject();
+        builder.field("id", id);
+        builder.field("description", description);
+        builder.field("state", state().name().toLowerCase());
+        builder.field("total", progress.total());
+        builder.field("collected", progress.collected());
+        builder.field("failed", progress.failed());
+        builder.field("retried", progress.retried());
+        builder.field("bytes", progress.bytes());
+        builder.field("docs_per_second", docsPerSecond());
+        builder.field("eta_in_seconds", isFinished() ? 0 : etaInSeconds());
+        builder.field("running_in_millis", runningMillis());
+        builder.startObject("throttle");
+        builder.field("docs_per_second", throttle.docsPerSecond());
+        builder.field("mb_per_second", throttle.mbPerSecond());
+        builder.endObject();
+        builder.startObject("buffers");
+        buffers.toXContent(builder, params);
+        builder.endObject();
+        long blackout = blackoutMillis();
+        if (blackout >= 0)
+            builder.field("blackout_in_millis", blackout);
+        Object mark = highWaterMark();
+        if (mark != null)
+            builder.field("high_water_mark", mark);
+        String err = error();
+        if (err != null)
+            builder.field("error", err);
+        builder.startObject("stats");
+        stats.toXContent(builder, params);
+        builder.endObject();
+        builder.endObject();
+        return builder;
+    }
+
+    @Override public String toString() {
+        return id + " " + description + " " + state();
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ *  Copyright 2026 the Reindex Plugin contributors
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.pannous.es.reindex;
+
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.StringRestResponse;
+import org.elasticsearch.rest.XContentRestResponse;
+import org.elasticsearch.rest.XContentThrowableRestResponse;
+import static org.elasticsearch.rest.RestRequest.Method.*;
+import static org.elasticsearch.rest.RestStatus.*;
+import static org.elasticsearch.rest.action.support.RestXContentBuilder.*;
+
+/**
+ * Shows the progress and the stats of the reindex jobs of this node and
+ * allows to pause, resume, cancel or throttle them.
+ */
+public class ReIndexJobAction extends BaseRestHandler {
+
+    private final ReIndexJobs jobs;
+
+    @Inject public ReIndexJobAction(Settings settings, Client client, RestController controller,
+            ReIndexJobs jobs) {
+        super(settings, client);
+        this.jobs = jobs;
+
+        controller.registerHandler(GET, "/_reindex", this);
+        controller.registerHandler(GET, "/_reindex/_stats", this);
+        controller.registerHandler(GET, "/_reindex/{id}", this);
+        controller.registerHandler(POST, "/_reindex/{id}/{command}", this);
+    }
+
+    @Override public void handleRequest(RestRequest request, RestChannel channel) {
+        try {
+            XContentBuilder builder = restContentBuilder(request);
+            String id = request.param("id");
+            if (request.path().endsWith("/_stats")) {
+                builder.startObject().startObject("node");
+                builder.field("jobs_queued", jobs.queuedJobs());
+                builder.field("jobs_running", jobs.runningJobs());
+                jobs.stats().toXContent(builder, request);
+                builder.endObject().startObject("jobs");
+                for (ReIndexJob job : jobs.list()) {
+                    builder.startObject(job.id());
+                    builder.field("state", job.state().name().toLowerCase());
+                    job.stats().toXContent(builder, request);
+                    builder.endObject();
+                }
+                builder.endObject().endObject();
+                channel.sendResponse(new XContentRestResponse(request, OK, builder));
+                return;
+            }
+            if (id == null) {
+                builder.startObject().startArray("jobs");
+                for (ReIndexJob job : jobs.list()) {
+                    job.toXContent(builder, request);
+                }
+                builder.endArray().endObject();
+                channel.sendResponse(new XContentRestResponse(request, OK, builder));
+                return;
+            }
+
+            ReIndexJob job = jobs.get(id);
+            if (job == null) {
+                channel.sendResponse(new StringRestResponse(NOT_FOUND, "reindex job " + id + " not found"));
+                return;
+            }
+
+            String command = request.param("command");
+            if (command != null) {
+                boolean changed;
+                if ("_pause".equals(command))
+                    changed = job.pause();
+                else if ("_resume".equals(command))
+                    changed = job.resume();
+                else if ("_cancel".equals(command))
+                    changed = job.cancel();
+                else if ("_throttle".equals(command)) {
+                    ReIndexThrottle throttle = job.throttle();
+                    changed = !job.isFinished();
+                    if (changed)
+                        throttle.limits(request.paramAsFloat("docsPerSecond", (float) throttle.docsPerSecond()),
+                                request.paramAsFloat("mbPerSecond", (float) throttle.mbPerSecond()));
+                } else {
+                    channel.sendResponse(new StringRestResponse(BAD_REQUEST, "unknown command " + command
+                            + ", use _pause, _resume, _cancel or _throttle"));
+                    return;
+                }
+                if (!changed) {
+                    channel.sendResponse(new StringRestResponse(CONFLICT, "cannot " + command.substring(1)
+                            + " reindex job " + id + " in state " + job.state().name().toLowerCase()));
+                    return;
+                }
+                logger.info(command.substring(1) + " reindex job " + job);
+            }
+            job.toXContent(builder, request);
+            channel.sendResponse(new XContentRestResponse(request, OK, builder));
+        } catch (Exception ex) {
+            try {
+                channel.sendResponse(new XContentThrowableRestResponse(request, ex));
+            } catch (Exception ex2) {
+                logger.error("problem while sending reindex job status", ex2);
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ *  Copyright 2026 the Reindex Plugin contributors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.pannous.es.reindex;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.elasticsearch.ElasticSearchException;
+import org.elasticsearch.common.component.AbstractLifecycleComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.EsAbortPolicy;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.common.util.concurrent.EsThreadPoolExecutor;
+
+/**
+ * Runs the reindex jobs of this node in a dedicated and bounded thread pool
+ * and keeps them accessible via their id. Configure via reindex.threads
+ * (default 2), reindex.queue_size (default 10) and reindex.keep_finished
+ * (default 100).
+ */
+public class ReIndexJobs extends AbstractLifecycleComponent<ReIndexJobs> {
+
+    private final EsThreadPoolExecutor executor;
+    private final AtomicLong idCounter = new AtomicLong();
+    private final Map<String, ReIndexJob> jobs = new LinkedHashMap<String, ReIndexJob>();
+    private final int keepFinished;
+    private final ReIndexStats stats = new ReIndexStats();
+
+    @Inject public ReIndexJobs(Settings settings) {
+        super(settings);
+        int threads = settings.getAsInt("reindex.threads", 2);
+        int queueSize = settings.getAsInt("reindex.queue_size", 10);
+        keepFinished = settings.getAsInt("reindex.keep_finished", 100);
+        executor = new EsThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize),
+                EsExecutors.daemonThreadFactory(settings, "reindex"), new EsAbortPolicy());
+    }
+
+    @Override protected void doStart() throws ElasticSearchException {
+    }
+
+    @Override protected void doStop() throws ElasticSearchException {
+        for (ReIndexJob job : list()) {
+            job.cancel();
+        }
+        executor.shutdownNow();
+    }
+
+    @Override protected void doClose() throws ElasticSearchException {
+    }
+
+    public ReIndexJob create(String description) {
+        ReIndexJob job = new ReIndexJob(Long.toString(idCounter.incrementAndGet()), description, stats);
+        synchronized (jobs) {
+            removeOldJobs();
+            jobs.put(job.id(), job);
+        }
+        return job;
+    }
+
+    /**
+     * Executes the specified task in the reindex thread pool. Throws an
+     * EsRejectedExecutionException if too many jobs are already queued.
+     */
+    public void submit(final ReIndexJob job, final Runnable task) {
+        try {
+            executor.execute(new Runnable() {
+                @Override public void run() {
+                    Throwable error = null;
+                    job.started();
+                    try {
+                        if (job.awaitRunning())
+                            task.run();
+                    } catch (Throwable ex) {
+                        logger.error("reindex job " + job + " failed", ex);
+                        error = ex;
+                    } finally {
+                        job.finished(error);
+                        logger.info("reindex job " + job + " finished. " + job.progress());
+                    }
+                }
+            });
+        } catch (RuntimeException ex) {
+            synchronized (jobs) {
+                jobs.remove(job.id());
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * @return the stats of all jobs of this node
+     */
+    public ReIndexStats stats() {
+        return stats;
+    }
+
+    /**
+     * @return the number of jobs waiting for a free thread
+     */
+    public int queuedJobs() {
+        return executor.getQueue().size();
+    }
+
+    public int runningJobs() {
+        return executor.getActiveCount();
+    }
+
+    public ReIndexJob get(String id) {
+        synchronized (jobs) {
+            return jobs.get(id);
+        }
+    }
+
+    public List<ReIndexJob> list() {
+        synchronized (jobs) {
+            return new ArrayList<ReIndexJob>(jobs.values());
+        }
+    }
+
+    private void removeOldJobs() {
+        int finished = 0;
+        for (ReIndexJob job : jobs.values()) {
+            if (job.isFinished())
+                finished++;
+        }
+        Iterator<ReIndexJob> iter = jobs.values().iterator();
+        while (finished > keepFinished && iter.hasNext()) {
+            if (iter.next().isFinished()) {
+                iter.remove();
+                finished--;
+            }
+        }
+    }
+}
@@ -1,5 +1,8 @@
 package com.pannous.es.reindex;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import org.elasticsearch.common.component.LifecycleComponent;
 import org.elasticsearch.common.inject.Module;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.Loggers;
@@ -21,10 +24,25 @@ public class ReIndexPlugin extends AbstractPlugin {
         return "ReIndex Plugin";
     }
 
+    @Override public Collection<Class<? extends Module>> modules() {
+        Collection<Class<? extends Module>> modules = new ArrayList<Class<? extends Module>>();
+        modules.add(ReIndexModule.class);
+        return modules;
+    }
+
+    // AbstractPlugin declares services() with the raw LifecycleComponent type
+    @SuppressWarnings("rawtypes")
+    @Override public Collection<Class<? extends LifecycleComponent>> services() {
+        Collection<Class<? extends LifecycleComponent>> services = new ArrayList<Class<? extends LifecycleComponent>>();
+        services.add(ReIndexJobs.class);
+        return services;
+    }
+
     @Override public void processModule(Module module) {
         if (module instanceof RestModule) {
             ((RestModule) module).addRestAction(ReIndexAction.class);
             ((RestModule) module).addRestAction(ReIndexWithCreate.class);
+            ((RestModule) module).addRestAction(ReIndexJobAction.class);
             // logger.info("NOW " + action.getFeed("test"));
         }
     }
@@ -0,0 +1,76 @@
+/*
+ *  Copyright 2026 the Reindex Plugin contributors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.pannous.es.reindex;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of one reindex run. Thread safe so that several scroll readers can
+ * report into the same instance.
+ */
+public class ReIndexProgress {
+
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong collected = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+
+    public void addTotal(long hits) {
+        total.addAndGet(hits);
+    }
+
+    public void addCollected(long hits) {
+        collected.addAndGet(hits);
+    }
+
+    public void addFailed(long hits) {
+        failed.addAndGet(hits);
+    }
+
+    public void addRetried(long hits) {
+        retried.addAndGet(hits);
+    }
+
+    public void addBytes(long b) {
+        bytes.addAndGet(b);
+    }
+
+    public long total() {
+        return total.get();
+    }
+
+    public long collected() {
+        return collected.get();
+    }
+
+    public long failed() {
+        return failed.get();
+    }
+
+    public long retried() {
+        return retried.get();
+    }
+
+    public long bytes() {
+        return bytes.get();
+    }
+
+    @Override public String toString() {
+        return "found " + total() + ", collected:" + collected()
+                + ", transfered:" + (float) bytes() / (1 << 20) + "MB";
+    }
+}
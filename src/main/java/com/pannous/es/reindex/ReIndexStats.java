@@ -0,0 +1,184 @@
+/*
+ *  Copyright 2026 the Reindex Plugin contributors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.pannous.es.reindex;
+
+import java.io.IOException;
+import org.elasticsearch.common.metrics.CounterMetric;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * Counters and latency histograms of one job or of all jobs of this node.
+ * Every value recorded on the stats of a job is recorded on the node stats
+ * too. Latencies are recorded in microseconds and shown in milliseconds.
+ */
+public class ReIndexStats implements ToXContent {
+
+    private final ReIndexStats parent;
+    private final CounterMetric docsRead = new CounterMetric();
+    private final CounterMetric docsWritten = new CounterMetric();
+    private final CounterMetric docsFailed = new CounterMetric();
+    private final CounterMetric docsRetried = new CounterMetric();
+    private final CounterMetric wireBytes = new CounterMetric();
+    private final CounterMetric sourceBytes = new CounterMetric();
+    private final Histogram scroll = new Histogram();
+    private final Histogram transform = new Histogram();
+    private final Histogram bulk = new Histogram();
+    private final Histogram prefetchQueue = new Histogram();
+    private final Histogram transformQueue = new Histogram();
+    private final Histogram bulksInFlight = new Histogram();
+
+    public ReIndexStats() {
+        this(null);
+    }
+
+    public ReIndexStats(ReIndexStats parent) {
+        this.parent = parent;
+    }
+
+    /**
+     * Records one scroll page with the bytes received from the source, e.g.
+     * compressed.
+     */
+    public void scroll(int docs, long bytes, long micros) {
+        docsRead.inc(docs);
+        wireBytes.inc(bytes);
+        scroll.record(micros);
+        if (parent != null)
+            parent.scroll(docs, bytes, micros);
+    }
+
+    public void transform(long micros) {
+        transform.record(micros);
+        if (parent != null)
+            parent.transform(micros);
+    }
+
+    /**
+     * Records one bulk request.
+     */
+    public void bulk(int written, long micros) {
+        docsWritten.inc(written);
+        bulk.record(micros);
+        if (parent != null)
+            parent.bulk(written, micros);
+    }
+
+    public void sourceBytes(long bytes) {
+        sourceBytes.inc(bytes);
+        if (parent != null)
+            parent.sourceBytes(bytes);
+    }
+
+    public void failed(long docs) {
+        docsFailed.inc(docs);
+        if (parent != null)
+            parent.failed(docs);
+    }
+
+    public void retried(long docs) {
+        docsRetried.inc(docs);
+        if (parent != null)
+            parent.retried(docs);
+    }
+
+    /**
+     * Records the number of pages which were already fetched in advance.
+     */
+    public void prefetchQueue(int pages) {
+        prefetchQueue.record(pages);
+        if (parent != null)
+            parent.prefetchQueue(pages);
+    }
+
+    /**
+     * Records the number of pages which are in transformation.
+     */
+    public void transformQueue(int pages) {
+        transformQueue.record(pages);
+        if (parent != null)
+            parent.transformQueue(pages);
+    }
+
+    /**
+     * Records the number of bulk requests of one reader which are in flight.
+     */
+    public void bulksInFlight(int bulks) {
+        bulksInFlight.record(bulks);
+        if (parent != null)
+            parent.bulksInFlight(bulks);
+    }
+
+    public long docsRead() {
+        return docsRead.count();
+    }
+
+    public long docsWritten() {
+        return docsWritten.count();
+    }
+
+    public long docsFailed() {
+        return docsFailed.count();
+    }
+
+    public long docsRetried() {
+        return docsRetried.count();
+    }
+
+    public long wireBytes() {
+        return wireBytes.count();
+    }
+
+    public long sourceBytes() {
+        return sourceBytes.count();
+    }
+
+    public Histogram scrollLatency() {
+        return scroll;
+    }
+
+    public Histogram transformLatency() {
+        return transform;
+    }
+
+    public Histogram bulkLatency() {
+        return bulk;
+    }
+
+    @Override public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject("docs");
+        builder.field("read", docsRead());
+        builder.field("written", docsWritten());
+        builder.field("failed", docsFailed());
+        builder.field("retried", docsRetried());
+        builder.endObject();
+        builder.startObject("bytes");
+        builder.field("wire", wireBytes());
+        builder.field("source", sourceBytes());
+        builder.endObject();
+        builder.startObject("latency_in_millis");
+        scroll.toXContent(builder, "scroll", 0.001);
+        transform.toXContent(builder, "transform", 0.001);
+        bulk.toXContent(builder, "bulk", 0.001);
+        builder.endObject();
+        builder.startObject("queues");
+        prefetchQueue.toXContent(builder, "prefetch", 1);
+        transformQueue.toXContent(builder, "transform", 1);
+        bulksInFlight.toXContent(builder, "bulk", 1);
+        builder.endObject();
+        return builder;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ *  Copyright 2026 the Reindex Plugin contributors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.pannous.es.reindex;
+
+/**
+ * Token bucket which limits the documents and the bytes per second of one
+ * reindex job. The buckets hold at most one second of tokens and may go into
+ * debt by one page, so the rate is smoothed across pages instead of sleeping a
+ * fixed time. The limits can be changed while the job is running, waiting
+ * threads see the new limits immediately.
+ */
+public class ReIndexThrottle {
+
+    private double docsPerSecond;
+    private double bytesPerSecond;
+    private double docTokens;
+    private double byteTokens;
+    private long lastRefill = System.nanoTime();
+    private boolean closed;
+
+    /**
+     * Sets the limits. A value of 0 or less disables the limit.
+     */
+    public synchronized ReIndexThrottle limits(double docsPerSecond, double mbPerSecond) {
+        refill();
+        this.docsPerSecond = Math.max(0, docsPerSecond);
+        this.bytesPerSecond = Math.max(0, mbPerSecond * (1 << 20));
+        docTokens = this.docsPerSecond == 0 ? 0 : Math.min(docTokens, this.docsPerSecond);
+        byteTokens = this.bytesPerSecond == 0 ? 0 : Math.min(byteTokens, this.bytesPerSecond);
+        notifyAll();
+        return this;
+    }
+
+    public synchronized double docsPerSecond() {
+        return docsPerSecond;
+    }
+
+    public synchronized double mbPerSecond() {
+        return bytesPerSecond / (1 << 20);
+    }
+
+    public synchronized boolean isLimited() {
+        return docsPerSecond > 0 || bytesPerSecond > 0;
+    }
+
+    /**
+     * Takes the tokens for the specified documents and blocks until the
+     * buckets are no longer in debt or until the throttle is closed.
+     */
+    public synchronized void acquire(long docs, long bytes) throws InterruptedException {
+        refill();
+        if (docsPerSecond > 0)
+            docTokens -= docs;
+        if (bytesPerSecond > 0)
+            byteTokens -= bytes;
+        while (!closed) {
+            refill();
+            double waitSeconds = 0;
+            if (docsPerSecond > 0 && docTokens < 0)
+                waitSeconds = -docTokens / docsPerSecond;
+            if (bytesPerSecond > 0 && byteTokens < 0)
+                waitSeconds = Math.max(waitSeconds, -byteTokens / bytesPerSecond);
+            long waitMillis = (long) Math.ceil(waitSeconds * 1000);
+            if (waitMillis <= 0)
+                break;
+            wait(waitMillis);
+        }
+    }
+
+    /**
+     * Releases all waiting threads, e.g. if the job was cancelled.
+     */
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        double seconds = (now - lastRefill) / 1e9;
+        lastRefill = now;
+        if (docsPerSecond > 0)
+            docTokens = Math.min(docsPerSecond, docTokens + seconds * docsPerSecond);
+        if (bytesPerSecond > 0)
+            byteTokens = Math.min(bytesPerSecond, byteTokens + seconds * bytesPerSecond);
+    }
+
+    @Override public String toString() {
+        return "throttle " + docsPerSecond() + " docs/s " + mbPerSecond() + " MB/s";
+    }
+}
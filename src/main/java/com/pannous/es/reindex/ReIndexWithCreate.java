@@ -1,6 +1,9 @@
 package com.pannous.es.reindex;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import org.elasticsearch.action.admin.cluster.state.ClusterStateRequest;
 import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest;
@@ -10,11 +13,14 @@ import org.elasticsearch.action.admin.indices.exists.indices.IndicesExistsReques
 import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
 import org.elasticsearch.action.count.CountRequest;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.AliasAction;
+import org.elasticsearch.cluster.metadata.AliasMetaData;
 import org.elasticsearch.cluster.metadata.IndexMetaData;
 import org.elasticsearch.cluster.metadata.MappingMetaData;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.settings.ImmutableSettings;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.rest.BaseRestHandler;
 import org.elasticsearch.rest.RestChannel;
 import org.elasticsearch.rest.RestController;
@@ -22,12 +28,10 @@ import org.elasticsearch.rest.RestRequest;
 import static org.elasticsearch.rest.RestRequest.Method.*;
 import org.elasticsearch.rest.RestStatus;
 import org.elasticsearch.rest.StringRestResponse;
-import org.elasticsearch.rest.XContentRestResponse;
 import org.elasticsearch.rest.XContentThrowableRestResponse;
+import org.elasticsearch.script.ScriptService;
 import static org.elasticsearch.rest.RestRequest.Method.*;
 import static org.elasticsearch.rest.RestStatus.*;
-import static org.elasticsearch.rest.action.support.RestXContentBuilder.*;
-import org.elasticsearch.common.xcontent.XContentBuilder;
 
 /**
  * @author Peter Karich
@@ -36,7 +40,8 @@ public class ReIndexWithCreate extends BaseRestHandler {
 
     private ReIndexAction reindexAction;
 
-    @Inject public ReIndexWithCreate(Settings settings, Client client, RestController controller) {
+    @Inject public ReIndexWithCreate(Settings settings, Client client, RestController controller,
+            ReIndexJobs jobs, ScriptService scriptService) {
         super(settings, client);
 
         // Define REST endpoints to do a reindex
@@ -45,15 +50,14 @@ public class ReIndexWithCreate extends BaseRestHandler {
 
         // give null controller as argument to avoid registering twice
         // which would lead to an assert exception
-        reindexAction = new ReIndexAction(settings, client, null);
+        reindexAction = new ReIndexAction(settings, client, null, jobs, scriptService);
     }
 
     @Override public void handleRequest(RestRequest request, RestChannel channel) {
         logger.info("ReIndexWithCreate.handleRequest [{}]", request.toString());
         try {
-            XContentBuilder builder = restContentBuilder(request);
             // required parameters
-            String newIndexName = request.param("index");
+            final String newIndexName = request.param("index");
             if (newIndexName.isEmpty()) {
                 channel.sendResponse(new StringRestResponse(RestStatus.EXPECTATION_FAILED, "parameter index missing"));
                 return;
@@ -68,6 +72,24 @@ public class ReIndexWithCreate extends BaseRestHandler {
                 channel.sendResponse(new StringRestResponse(RestStatus.EXPECTATION_FAILED, "parameter searchIndex missing"));
                 return;
             }
+            final boolean cutover = request.paramAsBoolean("cutover", false);
+            String timestampField = request.param("timestampField", "");
+            if (cutover && timestampField.isEmpty()) {
+                channel.sendResponse(new StringRestResponse(RestStatus.EXPECTATION_FAILED,
+                        "parameter timestampField missing, it is required for the cutover"));
+                return;
+            }
+            if (cutover && request.paramAsBoolean("mirror", false)) {
+                channel.sendResponse(new StringRestResponse(RestStatus.EXPECTATION_FAILED,
+                        "parameter mirror cannot be combined with cutover, mirroring runs until it is cancelled"));
+                return;
+            }
+            if (!request.param("targetHost", "").isEmpty() || !request.param("targetDump", "").isEmpty()) {
+                channel.sendResponse(new StringRestResponse(RestStatus.EXPECTATION_FAILED,
+                        "parameters targetHost and targetDump are not supported, the new index is created"
+                        + " in this cluster"));
+                return;
+            }
             int newShards = request.paramAsInt("newIndexShards", -1);
             try {
                 if(client.admin().indices().exists(new IndicesExistsRequest(newIndexName)).actionGet().isExists()) {
@@ -83,9 +105,9 @@ public class ReIndexWithCreate extends BaseRestHandler {
                 return;
             }
 
-            // TODO: what if queries goes to the old index while we reindexed?
             // now reindex
-        
+            final ReIndexJob job = reindexAction.jobs().create(searchIndexName + " -> " + newIndexName);
+            final List<ReIndexAction.ReIndexTask> tasks = new ArrayList<ReIndexAction.ReIndexTask>();
             if(type.equals("*")) {
 
                 IndexMetaData indexData = client.admin().cluster().state(new ClusterStateRequest()).
@@ -93,35 +115,68 @@ public class ReIndexWithCreate extends BaseRestHandler {
                 Settings searchIndexSettings = indexData.settings();
 
                 for(Map.Entry<String, MappingMetaData> me : indexData.mappings().entrySet()) {
-                    reindexAction.handleRequest(request, channel, me.getKey(), true);
+                    tasks.add(reindexAction.prepareReindex(request, me.getKey(), job));
                 }
             }
             else {
-                reindexAction.handleRequest(request, channel, type, true);
+                tasks.add(reindexAction.prepareReindex(request, type, job));
             }
 
-            boolean delete = request.paramAsBoolean("delete", false);
-            if (delete) {
-            
-                // make sure to refresh the index here
-                // (e.g. the index may be paused or refreshing with a very long interval):
-                logger.info("refreshing " + searchIndexName);
-                client.admin().indices().refresh(new RefreshRequest(newIndexName)).actionGet();
-            
-                long oldCount = client.count(new CountRequest(searchIndexName)).actionGet().getCount();
-                long newCount = client.count(new CountRequest(newIndexName)).actionGet().getCount();
-                if (oldCount == newCount) {
-                    logger.info("deleting " + searchIndexName);
-                    client.admin().indices().delete(new DeleteIndexRequest(searchIndexName)).actionGet();
+            final String searchIndexNameFinal = searchIndexName;
+            final boolean delete = request.paramAsBoolean("delete", false);
+            final boolean copyAliases = request.paramAsBoolean("copyAliases", false);
+            final boolean aliasIncludeIndex = request.paramAsBoolean("addOldIndexAsAlias", false);
+            final BulkLoadProfile profile = request.paramAsBoolean("bulkLoad", false)
+                    ? new BulkLoadProfile(client, newIndexName,
+                    new File(reindexAction.checkpointDir(), newIndexName + ".bulkload")) : null;
+            final int optimizeSegments = request.paramAsInt("optimizeSegments", 0);
+            final TimeValue greenTimeout = request.paramAsTime("waitForGreenTimeout", TimeValue.timeValueMinutes(30));
+            reindexAction.jobs().submit(job, new Runnable() {
+                @Override public void run() {
+                    if (profile != null)
+                        profile.apply();
+                    try {
+                        for (Runnable task : tasks) {
+                            if (job.isCancelled())
+                                return;
+                            task.run();
+                        }
+                    } finally {
+                        if (profile != null)
+                            profile.restore();
+                    }
+                    if (job.isCancelled())
+                        return;
+                    if (profile != null) {
+                        if (optimizeSegments > 0)
+                            profile.optimize(optimizeSegments);
+                        profile.waitForGreen(greenTimeout);
+                    }
+                    if (cutover)
+                        cutover(tasks, searchIndexNameFinal, newIndexName, job);
+
+                    if (delete) {
+
+                        // make sure to refresh the index here
+                        // (e.g. the index may be paused or refreshing with a very long interval):
+                        logger.info("refreshing " + searchIndexNameFinal);
+                        client.admin().indices().refresh(new RefreshRequest(newIndexName)).actionGet();
+
+                        long oldCount = client.count(new CountRequest(searchIndexNameFinal)).actionGet().getCount();
+                        long newCount = client.count(new CountRequest(newIndexName)).actionGet().getCount();
+                        if (oldCount == newCount) {
+                            logger.info("deleting " + searchIndexNameFinal);
+                            client.admin().indices().delete(new DeleteIndexRequest(searchIndexNameFinal)).actionGet();
+                        }
+                    }
+
+                    // the cutover moved the aliases already
+                    if (copyAliases || cutover && aliasIncludeIndex)
+                        copyAliases(newIndexName, searchIndexNameFinal, !cutover, aliasIncludeIndex);
                 }
-            }
+            });
+            reindexAction.respond(request, channel, job);
 
-            boolean copyAliases = request.paramAsBoolean("copyAliases", false);
-            if (copyAliases)
-                copyAliases(request);
-                
-            channel.sendResponse(new XContentRestResponse(request, OK, builder));
-                
         } catch (Exception ex) { // also catch the RuntimeException thrown by ReIndexAction
             try {
                 channel.sendResponse(new XContentThrowableRestResponse(request, ex));
@@ -131,6 +186,66 @@ public class ReIndexWithCreate extends BaseRestHandler {
         }
     }
 
+    /**
+     * Blocks writes to the old index, copies the documents written since the
+     * last delta pass and moves all aliases of the old index in one atomic
+     * request to the new index. The old index stays read only afterwards.
+     */
+    void cutover(List<ReIndexAction.ReIndexTask> tasks, String searchIndexName, String newIndexName,
+            ReIndexJob job) {
+        logger.info("blocking writes to " + searchIndexName + " for the cutover to " + newIndexName);
+        long start = System.currentTimeMillis();
+        setWriteBlock(searchIndexName, true);
+        boolean switched = false;
+        try {
+            client.admin().indices().refresh(new RefreshRequest(searchIndexName)).actionGet();
+            long docs = 0;
+            for (ReIndexAction.ReIndexTask task : tasks) {
+                docs += task.finalDelta();
+            }
+            if (job.isCancelled())
+                return;
+            client.admin().indices().refresh(new RefreshRequest(newIndexName)).actionGet();
+            moveAliases(searchIndexName, newIndexName);
+            switched = true;
+            job.blackoutMillis(System.currentTimeMillis() - start);
+            logger.info("cutover from " + searchIndexName + " to " + newIndexName + " finished, copied " + docs
+                    + " documents in the final delta, writes were blocked for " + job.blackoutMillis() + "ms");
+        } finally {
+            if (!switched) {
+                logger.warn("cutover to " + newIndexName + " failed, unblocking writes to " + searchIndexName);
+                setWriteBlock(searchIndexName, false);
+            }
+        }
+    }
+
+    private void setWriteBlock(String index, boolean block) {
+        client.admin().indices().prepareUpdateSettings(index).
+                setSettings(ImmutableSettings.settingsBuilder().put("index.blocks.write", block)).
+                execute().actionGet();
+    }
+
+    private void moveAliases(String oldIndex, String newIndex) {
+        IndexMetaData meta = client.admin().cluster().state(new ClusterStateRequest()).
+                actionGet().getState().metaData().index(oldIndex);
+        if (meta == null || meta.aliases().isEmpty())
+            return;
+        IndicesAliasesRequest aReq = new IndicesAliasesRequest();
+        for (AliasMetaData alias : meta.aliases().values()) {
+            aReq.removeAlias(oldIndex, alias.alias());
+            AliasAction add = AliasAction.newAddAliasAction(newIndex, alias.alias()).
+                    indexRouting(alias.indexRouting()).searchRouting(alias.searchRouting());
+            try {
+                if (alias.filter() != null)
+                    add.filter(alias.filter().string());
+            } catch (IOException ex) {
+                throw new RuntimeException("Cannot read filter of alias " + alias.alias(), ex);
+            }
+            aReq.addAliasAction(add);
+        }
+        client.admin().indices().aliases(aReq).actionGet();
+    }
+
     /**
      * Creates a new index out of the settings from the old index.
      */
@@ -162,20 +277,18 @@ public class ReIndexWithCreate extends BaseRestHandler {
         client.admin().indices().create(createReq).actionGet();
     }
 
-    private void copyAliases(RestRequest request) {
-        String index = request.param("index");
-        String searchIndexName = request.param("searchIndex");
+    private void copyAliases(String index, String searchIndexName, boolean existingAliases,
+            boolean aliasIncludeIndex) {
         IndexMetaData meta = client.admin().cluster().state(new ClusterStateRequest()).
                 actionGet().getState().metaData().index(searchIndexName);
         IndicesAliasesRequest aReq = new IndicesAliasesRequest();
         boolean empty = true;
-        if(meta != null && meta.aliases() != null) {
+        if(existingAliases && meta != null && meta.aliases() != null) {
             for (String oldAlias : meta.aliases().keySet()) {
                 empty = false;
                 aReq.addAlias(index, oldAlias);
             }
         }
-        boolean aliasIncludeIndex = request.paramAsBoolean("addOldIndexAsAlias", false);
         if (aliasIncludeIndex) {
             if (client.admin().indices().exists(new IndicesExistsRequest(searchIndexName)).actionGet().isExists()) {
                 logger.warn("Cannot add old index name (" + searchIndexName + ") as alias to index "
@@ -0,0 +1,120 @@
+/*
+ *  Copyright 2026 the Reindex Plugin contributors
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.pannous.es.reindex;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.script.CompiledScript;
+import org.elasticsearch.script.ExecutableScript;
+import org.elasticsearch.script.ScriptService;
+
+/**
+ * Runs a script of the node's script service for every hit, like the update
+ * API: the script reads and modifies ctx._source, can read ctx._id and
+ * ctx._version and skips the document if it sets ctx.op to "none". The script
+ * is compiled once (the script service caches compiled scripts) and every
+ * thread reuses its executable script and context map for all hits. Thread
+ * safe.
+ */
+public class ScriptTransform implements HitTransform {
+
+    private final ScriptService scriptService;
+    private final CompiledScript script;
+    private final Map<String, Object> params;
+    private final ThreadLocal<Context> contexts = new ThreadLocal<Context>() {
+        @Override protected Context initialValue() {
+            return new Context();
+        }
+    };
+
+    /**
+     * @param lang the script language or null for the default of the node
+     * @param params additional variables of the script or null
+     */
+    public ScriptTransform(ScriptService scriptService, String lang, String script, Map<String, Object> params) {
+        this.scriptService = scriptService;
+        this.script = scriptService.compile(lang, script);
+        this.params = params;
+    }
+
+    @Override public MySearchHits transform(MySearchHits hits) {
+        final long total = hits.totalHits();
+        final List<MySearchHit> res = new ArrayList<MySearchHit>();
+        Context context = contexts.get();
+        for (MySearchHit hit : hits.getHits()) {
+            MySearchHit transformed = context.run(hit);
+            if (transformed != null)
+                res.add(transformed);
+        }
+        return new MySearchHits() {
+            @Override public Iterable<MySearchHit> getHits() {
+                return res;
+            }
+
+            @Override public long totalHits() {
+                return total;
+            }
+        };
+    }
+
+    /**
+     * The executable script of one thread with the ctx variable it is bound
+     * to.
+     */
+    private class Context {
+
+        private final Map<String, Object> ctx = new HashMap<String, Object>();
+        private final ExecutableScript executable;
+
+        Context() {
+            Map<String, Object> vars = new HashMap<String, Object>();
+            if (params != null)
+                vars.putAll(params);
+            vars.put("ctx", ctx);
+            executable = scriptService.executable(script, vars);
+        }
+
+        /**
+         * @return the transformed hit or null if the script skipped it
+         */
+        @SuppressWarnings("unchecked")
+        MySearchHit run(MySearchHit hit) {
+            ctx.clear();
+            ctx.put("_id", hit.id());
+            ctx.put("_version", hit.version());
+            ctx.put("_source", XContentHelper.convertToMap(hit.sourceRef(), true).v2());
+            try {
+                executable.run();
+            } catch (RuntimeException ex) {
+                throw new RuntimeException("Script failed for document " + hit.id(), ex);
+            }
+            if ("none".equals(ctx.get("op")))
+                return null;
+            Map<String, Object> source = (Map<String, Object>) executable.unwrap(ctx.get("_source"));
+            try {
+                return new FieldTransform.TransformedHit(hit,
+                        XContentFactory.jsonBuilder().map(source).bytes());
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+    }
+}
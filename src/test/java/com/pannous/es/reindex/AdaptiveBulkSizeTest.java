@@ -0,0 +1,39 @@
+package com.pannous.es.reindex;
+
+import org.testng.annotations.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class AdaptiveBulkSizeTest {
+
+    @Test public void adapt() {
+        AdaptiveBulkSize bulkSize = new AdaptiveBulkSize(100, 10, 120, 500);
+        bulkSize.update(100, 100, 0);
+        assertThat(bulkSize.size(), equalTo(110));
+        // not full => keep
+        bulkSize.update(50, 100, 0);
+        assertThat(bulkSize.size(), equalTo(110));
+        bulkSize.update(110, 100, 0);
+        bulkSize.update(120, 100, 0);
+        assertThat(bulkSize.size(), equalTo(120));
+
+        bulkSize.update(120, 600, 0);
+        assertThat(bulkSize.size(), equalTo(108));
+        bulkSize.update(108, 1200, 0);
+        assertThat(bulkSize.size(), equalTo(54));
+    }
+
+    @Test public void rejected() {
+        AdaptiveBulkSize bulkSize = new AdaptiveBulkSize(100, 10, 1000, 500);
+        assertThat(bulkSize.pauseMillis(), equalTo(0L));
+        bulkSize.update(100, 100, 3);
+        assertThat(bulkSize.size(), equalTo(50));
+        assertThat(bulkSize.pauseMillis(), equalTo(100L));
+        bulkSize.update(50, 100, 1);
+        assertThat(bulkSize.size(), equalTo(25));
+        assertThat(bulkSize.pauseMillis(), equalTo(200L));
+        bulkSize.update(25, 100, 0);
+        assertThat(bulkSize.pauseMillis(), equalTo(0L));
+    }
+}
@@ -0,0 +1,26 @@
+package com.pannous.es.reindex;
+
+import org.testng.annotations.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class BackoffPolicyTest {
+
+    @Test public void delay() {
+        BackoffPolicy backoff = new BackoffPolicy(5, 100, 1000);
+        for (int i = 0; i < 20; i++) {
+            assertThat(backoff.delayMillis(0), allOf(greaterThanOrEqualTo(50L), lessThanOrEqualTo(100L)));
+            assertThat(backoff.delayMillis(2), allOf(greaterThanOrEqualTo(200L), lessThanOrEqualTo(400L)));
+            assertThat(backoff.delayMillis(10), allOf(greaterThanOrEqualTo(500L), lessThanOrEqualTo(1000L)));
+            assertThat(backoff.delayMillis(100), lessThanOrEqualTo(1000L));
+        }
+    }
+
+    @Test public void retryable() {
+        assertThat(ReIndexAction.isRetryable("RemoteTransportException[..]; nested: EsRejectedExecutionException[rejected execution]"), equalTo(true));
+        assertThat(ReIndexAction.isRetryable("UnavailableShardsException[[tweets][0] [2] shardIt, [0] active"), equalTo(true));
+        assertThat(ReIndexAction.isRetryable("MapperParsingException[failed to parse [count]]"), equalTo(false));
+        assertThat(ReIndexAction.isRetryable("VersionConflictEngineException[[tweets][0] [tweet][1]: version conflict"), equalTo(false));
+    }
+}
@@ -0,0 +1,96 @@
+package com.pannous.es.reindex;
+
+import org.testng.annotations.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class BufferPoolTest {
+
+    @Test public void recycle() {
+        BufferPool pool = new BufferPool(1 << 20);
+        BufferPool.Buffer buffer = pool.acquire(100000);
+        assertThat(buffer.array().length, equalTo(128 * 1024));
+        byte[] array = buffer.array();
+        buffer.retain();
+        buffer.release();
+        assertThat(pool.inUseBytes(), equalTo(128L * 1024));
+        buffer.release();
+        assertThat(pool.inUseBytes(), equalTo(0L));
+
+        // same size class
+        assertThat(pool.acquire(70000).array(), sameInstance(array));
+        assertThat(pool.recycled(), equalTo(1L));
+        assertThat(pool.pooledBytes(), equalTo(128L * 1024));
+    }
+
+    @Test public void waitWhenFull() throws Exception {
+        BufferPool pool = new BufferPool(64 * 1024, 50);
+        pool.acquire(10);
+        String message = null;
+        try {
+            pool.acquire(1000);
+        } catch (IllegalStateException ex) {
+            message = ex.getMessage();
+        }
+        assertThat(message, containsString("bufferPoolSizeInMB"));
+        assertThat(pool.waits(), equalTo(1L));
+        assertThat(pool.unpooled(), equalTo(0L));
+
+        pool = new BufferPool(64 * 1024, 10000);
+        final BufferPool.Buffer pooled = pool.acquire(10);
+        new Thread() {
+            @Override public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException ex) {
+                }
+                pooled.release();
+            }
+        }.start();
+        // continues when the first array is released
+        assertThat(pool.acquire(1000).array(), sameInstance(pooled.array()));
+        assertThat(pool.waits(), equalTo(1L));
+        assertThat(pool.peakInUseBytes(), equalTo(64L * 1024));
+    }
+
+    @Test public void mustWait() {
+        BufferPool pool = new BufferPool(128 * 1024);
+        assertThat(pool.mustWait(100000), equalTo(false));
+        BufferPool.Buffer first = pool.acquire(10);
+        assertThat(pool.mustWait(10), equalTo(false));
+        BufferPool.Buffer second = pool.acquire(10);
+        assertThat(pool.mustWait(10), equalTo(true));
+        second.release();
+        assertThat(pool.mustWait(10), equalTo(false));
+        // the free array is dropped for a larger one, but the first is in use
+        assertThat(pool.mustWait(100000), equalTo(true));
+        first.release();
+        assertThat(pool.mustWait(100000), equalTo(false));
+        assertThat(new BufferPool(0).mustWait(10), equalTo(false));
+    }
+
+    @Test public void dropFreeArraysOfOtherSizes() {
+        BufferPool pool = new BufferPool(128 * 1024);
+        pool.acquire(10).release();
+        pool.acquire(10).release();
+        assertThat(pool.pooledBytes(), equalTo(64L * 1024));
+        BufferPool.Buffer large = pool.acquire(100000);
+        assertThat(large.array().length, equalTo(128 * 1024));
+        assertThat(pool.pooledBytes(), equalTo(128L * 1024));
+        assertThat(pool.unpooled(), equalTo(0L));
+    }
+
+    @Test public void largerThanPool() {
+        BufferPool pool = new BufferPool(64 * 1024, 50);
+        BufferPool.Buffer buffer = pool.acquire(100000);
+        assertThat(buffer.array().length, equalTo(100000));
+        assertThat(pool.unpooled(), equalTo(1L));
+        // growing does not wait for the replaced buffer
+        buffer = pool.grow(buffer, 10, 200000);
+        assertThat(buffer.array().length, equalTo(200000));
+        buffer.release();
+        assertThat(pool.inUseBytes(), equalTo(0L));
+        assertThat(pool.waits(), equalTo(0L));
+    }
+}
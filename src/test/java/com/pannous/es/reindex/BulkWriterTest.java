@@ -0,0 +1,141 @@
+package com.pannous.es.reindex;
+
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.transport.NoNodeAvailableException;
+import org.testng.annotations.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class BulkWriterTest {
+
+    @Test public void retryRejectedItem() {
+        for (int concurrentBulks : new int[]{1, 2}) {
+            RejectOnceSink sink = new RejectOnceSink();
+            ReIndexJob job = new ReIndexJob("1", "test").backoff(new BackoffPolicy(3, 1, 10)).
+                    concurrentBulks(concurrentBulks);
+            BulkWriter writer = new BulkWriter(sink, job);
+            List<ActionRequest<?>> requests = new ArrayList<ActionRequest<?>>();
+            for (int i = 0; i < 3; i++) {
+                requests.add(new IndexRequest("tweets", "tweet", "" + i).source("{}"));
+            }
+            writer.execute(requests, 0);
+            writer.flush();
+
+            assertThat(writer.failed(), empty());
+            assertThat(job.progress().retried(), equalTo(1L));
+            assertThat(job.stats().docsRetried(), equalTo(1L));
+            assertThat(job.stats().docsWritten(), equalTo(3L));
+            // the whole bulk and then only the rejected item
+            assertThat(sink.sizes, equalTo(Arrays.asList(3, 1)));
+        }
+    }
+
+    @Test public void retryTransientRequestFailure() {
+        for (int concurrentBulks : new int[]{1, 2}) {
+            FailingSink sink = new FailingSink(new NoNodeAvailableException(), 2);
+            ReIndexJob job = new ReIndexJob("1", "test").backoff(new BackoffPolicy(3, 1, 10)).
+                    concurrentBulks(concurrentBulks);
+            BulkWriter writer = new BulkWriter(sink, job);
+            writer.execute(requests(3), 0);
+            writer.flush();
+
+            assertThat(writer.failed(), empty());
+            assertThat(job.progress().retried(), equalTo(6L));
+            assertThat(job.stats().docsWritten(), equalTo(3L));
+            assertThat(sink.calls, equalTo(3));
+        }
+    }
+
+    @Test public void failWhenRetriesAreExhausted() {
+        FailingSink sink = new FailingSink(new RuntimeException("Problem while bulk indexing",
+                new ConnectException("Connection refused")), 10);
+        BulkWriter writer = new BulkWriter(sink, new ReIndexJob("1", "test").backoff(new BackoffPolicy(2, 1, 10)));
+        String message = null;
+        try {
+            writer.execute(requests(3), 0);
+        } catch (RuntimeException ex) {
+            message = ex.getMessage();
+        }
+        assertThat(message, containsString("after 2 retries"));
+        assertThat(sink.calls, equalTo(3));
+    }
+
+    @Test public void doNotRetryPermanentRequestFailure() {
+        FailingSink sink = new FailingSink(new IllegalArgumentException("invalid bulk request"), 10);
+        BulkWriter writer = new BulkWriter(sink, new ReIndexJob("1", "test").backoff(new BackoffPolicy(3, 1, 10)));
+        String message = null;
+        try {
+            writer.execute(requests(3), 0);
+        } catch (RuntimeException ex) {
+            message = ex.getMessage();
+        }
+        assertThat(message, containsString("after 0 retries"));
+        assertThat(sink.calls, equalTo(1));
+    }
+
+    private static List<ActionRequest<?>> requests(int count) {
+        List<ActionRequest<?>> requests = new ArrayList<ActionRequest<?>>();
+        for (int i = 0; i < count; i++) {
+            requests.add(new IndexRequest("tweets", "tweet", "" + i).source("{}"));
+        }
+        return requests;
+    }
+
+    /**
+     * Fails the whole request the specified number of times, then accepts
+     * every item.
+     */
+    static class FailingSink implements BulkSink {
+
+        final RuntimeException error;
+        int failures;
+        int calls;
+
+        FailingSink(RuntimeException error, int failures) {
+            this.error = error;
+            this.failures = failures;
+        }
+
+        @Override public synchronized String[] execute(List<ActionRequest<?>> requests) {
+            calls++;
+            if (failures-- > 0)
+                throw error;
+            return new String[requests.size()];
+        }
+
+        @Override public void execute(List<ActionRequest<?>> requests, ActionListener<String[]> listener) {
+            try {
+                listener.onResponse(execute(requests));
+            } catch (RuntimeException ex) {
+                listener.onFailure(ex);
+            }
+        }
+    }
+
+    /**
+     * Rejects the second item of the first bulk request.
+     */
+    static class RejectOnceSink implements BulkSink {
+
+        final List<Integer> sizes = new ArrayList<Integer>();
+
+        @Override public synchronized String[] execute(List<ActionRequest<?>> requests) {
+            String[] failures = new String[requests.size()];
+            if (sizes.isEmpty())
+                failures[1] = "EsRejectedExecutionException[rejected execution of [index]]";
+            sizes.add(requests.size());
+            return failures;
+        }
+
+        @Override public void execute(List<ActionRequest<?>> requests, ActionListener<String[]> listener) {
+            listener.onResponse(execute(requests));
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.pannous.es.reindex;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.compress.CompressorFactory;
+import org.testng.annotations.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class FieldTransformTest {
+
+    @Test public void transform() throws Exception {
+        FieldTransform transform = new FieldTransform().rename("user", "author").remove("tmp").
+                set("origin", "import").copy("title", "title_raw");
+        assertThat(transform(transform, "{\"user\":\"peter\",\"tmp\":{\"a\":[1,2]},\"title\":\"Hello\",\"count\":3}"),
+                equalTo("{\"author\":\"peter\",\"title\":\"Hello\",\"title_raw\":\"Hello\",\"count\":3,\"origin\":\"import\"}"));
+        // the constant replaces an existing value
+        assertThat(transform(transform, "{\"origin\":\"old\",\"nested\":{\"user\":\"x\"}}"),
+                equalTo("{\"nested\":{\"user\":\"x\"},\"origin\":\"import\"}"));
+    }
+
+    @Test public void keepExistingTargetOnlyIfNotReplaced() throws Exception {
+        FieldTransform transform = new FieldTransform().rename("user", "author");
+        assertThat(transform(transform, "{\"author\":\"old\",\"user\":\"peter\"}"),
+                equalTo("{\"author\":\"peter\"}"));
+        assertThat(transform(transform, "{\"user\":\"peter\",\"author\":\"old\"}"),
+                equalTo("{\"author\":\"peter\"}"));
+        assertThat(transform(transform, "{\"author\":\"old\"}"), equalTo("{\"author\":\"old\"}"));
+    }
+
+    @Test public void compressedSource() throws Exception {
+        FieldTransform transform = new FieldTransform().remove("tmp");
+        byte[] source = "{\"tmp\":1,\"name\":\"hello\"}".getBytes("UTF-8");
+        byte[] compressed = CompressorFactory.defaultCompressor().compress(source, 0, source.length);
+        assertThat(transform.transform(new BytesArray(compressed)).toUtf8(),
+                equalTo("{\"name\":\"hello\"}"));
+    }
+
+    private String transform(FieldTransform transform, String source) throws Exception {
+        return transform.transform(new BytesArray(source)).toUtf8();
+    }
+}
@@ -0,0 +1,38 @@
+package com.pannous.es.reindex;
+
+import org.testng.annotations.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class HistogramTest {
+
+    @Test public void percentiles() {
+        Histogram histogram = new Histogram();
+        assertThat(histogram.percentile(0.5), equalTo(0L));
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        assertThat(histogram.count(), equalTo(100L));
+        assertThat(histogram.max(), equalTo(100L));
+        assertThat(histogram.mean(), closeTo(50.5, 0.001));
+        // 50 is in the bucket [32, 64)
+        assertThat(histogram.percentile(0.5), equalTo(63L));
+        assertThat(histogram.percentile(0.99), equalTo(100L));
+        histogram.record(0);
+        assertThat(histogram.percentile(0.001), equalTo(0L));
+    }
+
+    @Test public void nodeStats() {
+        ReIndexStats node = new ReIndexStats();
+        ReIndexStats job = new ReIndexStats(node);
+        job.scroll(10, 1000, 5000);
+        job.bulk(8, 2000);
+        job.failed(2);
+        assertThat(node.docsRead(), equalTo(10L));
+        assertThat(node.docsWritten(), equalTo(8L));
+        assertThat(node.docsFailed(), equalTo(2L));
+        assertThat(node.wireBytes(), equalTo(1000L));
+        assertThat(node.bulkLatency().count(), equalTo(1L));
+    }
+}
@@ -0,0 +1,76 @@
+package com.pannous.es.reindex;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.testng.annotations.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class MySearchResponseFileTest {
+
+    @Test public void readBlocks() throws Exception {
+        File file = dump("read");
+        MySearchResponseFile rsp = new MySearchResponseFile(file, 0, file.length());
+        try {
+            assertThat(rsp.hits().totalHits(), equalTo(4L));
+            assertThat(rsp.doScoll(), equalTo(2));
+            assertThat(rsp.doScoll(), equalTo(2));
+            assertThat(rsp.doScoll(), equalTo(0));
+        } finally {
+            rsp.close();
+            file.delete();
+        }
+    }
+
+    @Test public void truncatedBlock() throws Exception {
+        File file = dump("truncated");
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(file.length() - 1);
+        } finally {
+            raf.close();
+        }
+        String message = null;
+        try {
+            new MySearchResponseFile(file, 0, file.length()).close();
+        } catch (IllegalStateException ex) {
+            message = ex.getMessage();
+        } finally {
+            file.delete();
+        }
+        assertThat(message, startsWith("Truncated block at "));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void rejectFilesOf2GB() {
+        new FileBulkSink(new File(System.getProperty("java.io.tmpdir")), "reindex-test-large", 2048L << 20);
+    }
+
+    /**
+     * @return a dump file with two blocks of two documents
+     */
+    private static File dump(String name) throws Exception {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "reindex-test-" + name);
+        for (File file : FileBulkSink.files(dir, "test")) {
+            file.delete();
+        }
+        FileBulkSink sink = new FileBulkSink(dir, "test", 1 << 20);
+        try {
+            for (int block = 0; block < 2; block++) {
+                List<ActionRequest<?>> requests = new ArrayList<ActionRequest<?>>();
+                for (int i = 0; i < 2; i++) {
+                    requests.add(new IndexRequest("tweets", "tweet", block + "_" + i).source("{\"count\":" + i + "}"));
+                }
+                sink.execute(requests);
+            }
+        } finally {
+            sink.close();
+        }
+        return FileBulkSink.files(dir, "test")[0];
+    }
+}
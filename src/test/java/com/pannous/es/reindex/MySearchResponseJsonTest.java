@@ -0,0 +1,108 @@
+package com.pannous.es.reindex;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import org.testng.annotations.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class MySearchResponseJsonTest {
+
+    @Test public void parsePage() throws Exception {
+        String str = "{\"_scroll_id\":\"c2Nhbjs1OzE6\",\"took\":3,\"timed_out\":false,"
+                + "\"_shards\":{\"total\":5,\"successful\":5,\"failed\":0},\n"
+                + "\"hits\":{\"total\":2,\"max_score\":0.0,\"hits\":[\n"
+                + "  {\"_index\":\"oldtweets\",\"_type\":\"tweet\",\"_id\":\"1\",\"_version\":3,\"_score\":0.0,"
+                + " \"_source\" : { \"name\" : \"peter ä \\\"}\\\" test\", \"tags\" : [ {\"a\":1}, \"}\" ] } },\n"
+                + "  {\"_index\":\"oldtweets\",\"_type\":\"tweet\",\"_id\":\"2\",\"_version\":1,\"_score\":0.0,"
+                + "\"_source\":{}}]}}";
+        byte[] page = str.getBytes("UTF-8");
+        MySearchResponseJson rsp = new MySearchResponseJson("localhost", 9200, "", 10, true, 1);
+        assertThat(rsp.parsePage(page, page.length), equalTo(2));
+        assertThat(rsp.scrollId(), equalTo("c2Nhbjs1OzE6"));
+
+        Iterator<MySearchHit> iter = rsp.hits().getHits().iterator();
+        MySearchHit hit = iter.next();
+        assertThat(hit.id(), equalTo("1"));
+        assertThat(hit.version(), equalTo(3L));
+        assertThat(new String(hit.source(), "UTF-8"),
+                equalTo("{ \"name\" : \"peter ä \\\"}\\\" test\", \"tags\" : [ {\"a\":1}, \"}\" ] }"));
+        hit = iter.next();
+        assertThat(hit.id(), equalTo("2"));
+        assertThat(new String(hit.source(), "UTF-8"), equalTo("{}"));
+        assertThat(iter.hasNext(), equalTo(false));
+    }
+
+    @Test public void requestsAndDecodesGzip() throws Exception {
+        final List<String> encodings = Collections.synchronizedList(new ArrayList<String>());
+        final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append('a');
+        }
+        final String source = "{\"name\":\"" + sb + "\"}";
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        // answers only requests which accept gzip
+        server.createContext("/", new HttpHandler() {
+            int pages = 0;
+
+            @Override public void handle(HttpExchange exchange) throws IOException {
+                String encoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+                encodings.add(encoding);
+                requests.add(exchange.getRequestMethod() + " " + exchange.getRequestURI().getPath());
+                if (encoding == null || !encoding.contains("gzip")) {
+                    exchange.sendResponseHeaders(406, -1);
+                    exchange.close();
+                    return;
+                }
+                String body;
+                if (exchange.getRequestURI().getPath().endsWith("/_search"))
+                    body = "{\"_scroll_id\":\"s1\",\"hits\":{\"total\":1,\"hits\":[]}}";
+                else if (pages++ == 0)
+                    body = "{\"_scroll_id\":\"s2\",\"hits\":{\"total\":1,\"hits\":["
+                            + "{\"_id\":\"1\",\"_source\":" + source + "}]}}";
+                else
+                    body = "{\"_scroll_id\":\"s3\",\"hits\":{\"total\":1,\"hits\":[]}}";
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                exchange.sendResponseHeaders(200, 0);
+                OutputStream out = new GZIPOutputStream(exchange.getResponseBody());
+                out.write(body.getBytes("UTF-8"));
+                out.close();
+            }
+        });
+        server.start();
+        try {
+            MySearchResponseJson rsp = new MySearchResponseJson("localhost", server.getAddress().getPort(),
+                    "oldtweets", "tweet", "", "", 10, false, 1);
+            assertThat(rsp.hits().totalHits(), equalTo(1L));
+            assertThat(rsp.doScoll(), equalTo(1));
+            MySearchHit hit = rsp.hits().getHits().iterator().next();
+            assertThat(hit.id(), equalTo("1"));
+            assertThat(new String(hit.source(), "UTF-8"), equalTo(source));
+            // counted before the page was uncompressed
+            assertThat(rsp.bytes(), equalTo((long) source.length()));
+            assertThat(rsp.wireBytes(), greaterThan(0L));
+            assertThat(rsp.wireBytes(), lessThan(rsp.bytes()));
+            assertThat(rsp.doScoll(), equalTo(0));
+            assertThat(encodings.size(), equalTo(3));
+            for (String encoding : encodings) {
+                assertThat(encoding, containsString("gzip"));
+            }
+            // clears the last scroll
+            rsp.close();
+            assertThat(requests.get(requests.size() - 1), equalTo("DELETE /_search/scroll/s3"));
+        } finally {
+            server.stop(0);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.pannous.es.reindex;
+
+import java.util.Collections;
+import org.testng.annotations.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class MySearchResponsePrefetchTest {
+
+    @Test public void closeReleasesPrefetchedPages() throws Exception {
+        BufferPool pool = new BufferPool(1 << 20);
+        MySearchResponsePrefetch prefetch = new MySearchResponsePrefetch(new EndlessResponse(pool), 2);
+        assertThat(prefetch.doScoll(), equalTo(1));
+        // the caller owns the buffer of the current page
+        prefetch.pageBuffer().release();
+        for (int i = 0; i < 100 && prefetch.queued() < 2; i++) {
+            Thread.sleep(10);
+        }
+        assertThat(prefetch.queued(), equalTo(2));
+        assertThat(pool.inUseBytes(), greaterThan(0L));
+
+        prefetch.close();
+        for (int i = 0; i < 100 && pool.inUseBytes() > 0; i++) {
+            Thread.sleep(10);
+        }
+        assertThat(prefetch.queued(), equalTo(0));
+        assertThat(pool.inUseBytes(), equalTo(0L));
+    }
+
+    /**
+     * Reads one document per page into a new buffer of the pool.
+     */
+    static class EndlessResponse implements MySearchResponse {
+
+        private final BufferPool pool;
+        private BufferPool.Buffer buffer;
+
+        EndlessResponse(BufferPool pool) {
+            this.pool = pool;
+        }
+
+        @Override public MySearchHits hits() {
+            return new MySearchHits() {
+                @Override public Iterable<MySearchHit> getHits() {
+                    return Collections.emptyList();
+                }
+
+                @Override public long totalHits() {
+                    return Long.MAX_VALUE;
+                }
+            };
+        }
+
+        @Override public String scrollId() {
+            return "endless";
+        }
+
+        @Override public int doScoll() {
+            buffer = pool.acquire(100);
+            return 1;
+        }
+
+        @Override public BufferPool.Buffer pageBuffer() {
+            return buffer;
+        }
+
+        @Override public long bytes() {
+            return 0;
+        }
+
+        @Override public long wireBytes() {
+            return 0;
+        }
+    }
+}
@@ -6,8 +6,10 @@ public class ReIndexActionESTest extends ReIndexActionTester {
 
     @Override
     protected MySearchResponse scrollSearch(String index, String type, String query, int hits,
-            boolean withVersion, int keepMinutes) {
+            boolean withVersion, int keepMinutes, String preference) {
         SearchRequestBuilder srb = action.createScrollSearch(index, type, query, hits, withVersion, keepMinutes);
+        if (preference != null)
+            srb.setPreference(preference);
         return new MySearchResponseES(client, srb.execute().actionGet(), keepMinutes);
     }
 }
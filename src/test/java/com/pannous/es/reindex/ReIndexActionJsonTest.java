@@ -1,12 +1,305 @@
 package com.pannous.es.reindex;
 
+import java.io.File;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.action.admin.cluster.node.info.NodesInfoResponse;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.transport.InetSocketTransportAddress;
+import org.elasticsearch.search.SearchHit;
+import org.json.JSONObject;
+import org.testng.annotations.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
 public class ReIndexActionJsonTest extends ReIndexActionTester {
 
+    @Override
+    protected Settings nodeSettings() {
+        // the JSON search should request and handle compressed responses
+        return ImmutableSettings.settingsBuilder().put("http.compression", true).
+                put("reindex.checkpoint_dir", "data/checkpoints").build();
+    }
+
     @Override
     protected MySearchResponse scrollSearch(String searchIndex, String type, String filter, int hits,
-            boolean withVersion, int keepMinutes) {
+            boolean withVersion, int keepMinutes, String preference) {
         // TODO you need to shutdown all local instances to run this test
         return new MySearchResponseJson("localhost", 9200, searchIndex, type, filter, "", hits,
-                withVersion, keepMinutes);
+                withVersion, keepMinutes, preference);
+    }
+
+    @Override
+    protected boolean localAction() {
+        return false;
+    }
+
+    @Test public void numberOfShards() {
+        client.admin().indices().prepareCreate("oldtweets").
+                setSettings("{ \"index.number_of_shards\" : 3 }").execute().actionGet();
+        assertThat(MySearchResponseJson.numberOfShards("localhost", 9200, "oldtweets", ""), equalTo(3));
+        assertThat(action.numberOfShards("oldtweets"), equalTo(3));
+    }
+
+    @Test public void reindexViaRest() throws Exception {
+        client.prepareIndex("oldtweets", "tweet").setSource("{ \"name\" : \"hello world\"}").
+                setRefresh(true).execute().actionGet();
+        JSONObject job = request(new HttpPut("http://localhost:9200/tweets/tweet/_reindex"
+                + "?searchIndex=oldtweets&waitForCompletion=true"));
+        assertThat(job.getString("state"), equalTo("done"));
+        assertThat(job.getInt("collected"), equalTo(1));
+
+        JSONObject status = request(new HttpGet("http://localhost:9200/_reindex/" + job.getString("id")));
+        assertThat(status.getString("state"), equalTo("done"));
+        assertThat(status.getInt("collected"), equalTo(1));
+        JSONObject stats = job.getJSONObject("stats");
+        assertThat(stats.getJSONObject("docs").getInt("read"), equalTo(1));
+        assertThat(stats.getJSONObject("docs").getInt("written"), equalTo(1));
+        assertThat(stats.getJSONObject("latency_in_millis").getJSONObject("bulk").getInt("count"), equalTo(1));
+        assertThat(stats.getJSONObject("bytes").getLong("wire"), greaterThan(0L));
+        JSONObject queues = stats.getJSONObject("queues");
+        assertThat(queues.getJSONObject("transform").getInt("count"), greaterThan(0));
+        assertThat(queues.getJSONObject("bulk").getInt("count"), greaterThan(0));
+
+        JSONObject nodeStats = request(new HttpGet("http://localhost:9200/_reindex/_stats"));
+        assertThat(nodeStats.getJSONObject("node").getJSONObject("docs").getInt("written"), greaterThanOrEqualTo(1));
+        assertThat(nodeStats.getJSONObject("jobs").has(job.getString("id")), equalTo(true));
+    }
+
+    @Test public void reindexWithFieldTransform() throws Exception {
+        client.prepareIndex("oldtweets", "tweet").setSource("{ \"user\" : \"peter\", \"tmp\" : 1}").
+                execute().actionGet();
+        client.prepareIndex("oldtweets", "tweet").setSource("{ \"user\" : \"other\", \"tmp\" : 2}").
+                execute().actionGet();
+        client.admin().indices().prepareRefresh("oldtweets").execute().actionGet();
+        HttpPut put = new HttpPut("http://localhost:9200/tweets/tweet/_reindex?searchIndex=oldtweets"
+                + "&waitForCompletion=true");
+        put.setEntity(new StringEntity("{ \"filter\" : { \"term\" : { \"user\" : \"peter\" } },"
+                + " \"transform\" : { \"rename\" : { \"user\" : \"author\" }, \"remove\" : [\"tmp\"],"
+                + " \"set\" : { \"origin\" : \"import\" } } }", "UTF-8"));
+        JSONObject job = request(put);
+        assertThat(job.getString("state"), equalTo("done"));
+        assertThat(job.getInt("collected"), equalTo(1));
+        client.admin().indices().prepareRefresh("tweets").execute().actionGet();
+        SearchHit hit = client.prepareSearch("tweets").execute().actionGet().getHits().getAt(0);
+        assertThat(hit.sourceAsString(), equalTo("{\"author\":\"peter\",\"origin\":\"import\"}"));
+    }
+
+    @Test public void reindexWithScript() throws Exception {
+        client.prepareIndex("oldtweets", "tweet").setSource("{ \"name\" : \"hello\", \"likes\" : 2}").
+                execute().actionGet();
+        client.prepareIndex("oldtweets", "tweet").setSource("{ \"name\" : \"skip\", \"likes\" : 1}").
+                execute().actionGet();
+        client.admin().indices().prepareRefresh("oldtweets").execute().actionGet();
+        HttpPut put = new HttpPut("http://localhost:9200/tweets/tweet/_reindex?searchIndex=oldtweets"
+                + "&waitForCompletion=true");
+        put.setEntity(new StringEntity("{ \"script\" : \"if (ctx._source.name == 'skip') ctx.op = 'none';"
+                + " ctx._source.likes = ctx._source.likes * factor\", \"params\" : { \"factor\" : 10 } }", "UTF-8"));
+        JSONObject job = request(put);
+        assertThat(job.getString("state"), equalTo("done"));
+        assertThat(job.getJSONObject("stats").getJSONObject("docs").getInt("written"), equalTo(1));
+        client.admin().indices().prepareRefresh("tweets").execute().actionGet();
+        SearchHit hit = client.prepareSearch("tweets").execute().actionGet().getHits().getAt(0);
+        assertThat(hit.sourceAsString(), equalTo("{\"name\":\"hello\",\"likes\":20}"));
+    }
+
+    @Test public void reindexToRemoteTarget() throws Exception {
+        // number in the new index but a string in the old
+        client.prepareIndex("tweets", "tweet").setSource("{ \"name\" : \"existing\", \"likes\" : 1}").
+                setRefresh(true).execute().actionGet();
+        client.prepareIndex("oldtweets", "tweet").setSource("{ \"name\" : \"invalid\", \"likes\" : \"no number\"}").
+                execute().actionGet();
+        client.prepareIndex("oldtweets", "tweet").setSource("{\n  \"name\" : \"hello world\"\n}").
+                execute().actionGet();
+        client.admin().indices().prepareRefresh("oldtweets").execute().actionGet();
+        // the node has http.compression enabled, required for the compressed bodies
+        JSONObject job = request(new HttpPut("http://localhost:9200/tweets/tweet/_reindex?searchIndex=oldtweets"
+                + "&targetHost=127.0.0.1&targetPort=9200&targetCompression=true&waitForCompletion=true"));
+        assertThat(job.getString("state"), equalTo("done"));
+        assertThat(job.getInt("collected"), equalTo(2));
+        assertThat(job.getInt("failed"), equalTo(1));
+        client.admin().indices().prepareRefresh("tweets").execute().actionGet();
+        assertThat(client.prepareCount("tweets").execute().actionGet().getCount(), equalTo(2L));
+    }
+
+    @Test public void reindexWithPooledBuffers() throws Exception {
+        // one shard so that every page has one document
+        client.admin().indices().prepareCreate("oldtweets").
+                setSettings("{ \"index.number_of_shards\" : 1 }").execute().actionGet();
+        for (int i = 0; i < 5; i++) {
+            client.prepareIndex("oldtweets", "tweet").setSource("{ \"name\" : \"hello world\"}").
+                    execute().actionGet();
+        }
+        client.admin().indices().prepareRefresh("oldtweets").execute().actionGet();
+        // searched via HTTP, every bulk request gets one document
+        JSONObject job = request(new HttpPut("http://localhost:9200/tweets/tweet/_reindex?searchIndex=oldtweets"
+                + "&searchHost=127.0.0.1&hitsPerPage=1&bulkActions=1&prefetchPages=1&waitForCompletion=true"));
+        assertThat(job.getString("state"), equalTo("done"));
+        assertThat(job.getInt("collected"), equalTo(5));
+        JSONObject buffers = job.getJSONObject("buffers");
+        assertThat(buffers.getLong("in_use_in_bytes"), equalTo(0L));
+        assertThat(buffers.getLong("peak_in_use_in_bytes"), greaterThan(0L));
+        assertThat(buffers.getLong("recycled"), greaterThan(0L));
+        client.admin().indices().prepareRefresh("tweets").execute().actionGet();
+        assertThat(client.prepareCount("tweets").execute().actionGet().getCount(), equalTo(5L));
+    }
+
+    @Test public void reindexWithTinyBufferPool() throws Exception {
+        client.admin().indices().prepareCreate("oldtweets").
+                setSettings("{ \"index.number_of_shards\" : 1 }").execute().actionGet();
+        for (int i = 0; i < 5; i++) {
+            client.prepareIndex("oldtweets", "tweet").setSource("{ \"name\" : \"hello world\"}").
+                    execute().actionGet();
+        }
+        client.admin().indices().prepareRefresh("oldtweets").execute().actionGet();
+        // the pool holds two pages but a bulk request would hold all of them
+        for (int prefetchPages : new int[]{0, 1}) {
+            JSONObject job = request(new HttpPut("http://localhost:9200/tweets/tweet/_reindex?searchIndex=oldtweets"
+                    + "&searchHost=127.0.0.1&hitsPerPage=1&bulkActions=1000&bufferPoolSizeInMB=0.125"
+                    + "&prefetchPages=" + prefetchPages + "&waitForCompletion=true"));
+            assertThat(job.getString("state"), equalTo("done"));
+            assertThat(job.getInt("collected"), equalTo(5));
+            assertThat(job.getJSONObject("buffers").getLong("in_use_in_bytes"), equalTo(0L));
+        }
+        client.admin().indices().prepareRefresh("tweets").execute().actionGet();
+        assertThat(client.prepareCount("tweets").execute().actionGet().getCount(), equalTo(5L));
+    }
+
+    @Test public void checkpointPerType() throws Exception {
+        for (String type : new String[]{"tweet", "tweet", "user"}) {
+            client.prepareIndex("oldtweets", type).setSource("{ \"name\" : \"hello\"}").execute().actionGet();
+        }
+        client.admin().indices().prepareRefresh("oldtweets").execute().actionGet();
+        // all ranges of the type tweet were copied before the restart
+        File file = new File("data/checkpoints/multi.tweet.checkpoint");
+        file.delete();
+        ReIndexCheckpoint checkpoint = new ReIndexCheckpoint(file, "oldtweets/tweet -> tweets/tweet prefix 1 filter ");
+        for (String[] range : ReIndexCheckpoint.idRanges(1)) {
+            checkpoint.done(ReIndexCheckpoint.name(range), 0);
+        }
+        JSONObject job = request(new HttpPut("http://localhost:9200/_reindex?index=tweets&searchIndex=oldtweets"
+                + "&type=*&checkpoint=multi&waitForCompletion=true"));
+        assertThat(job.getString("state"), equalTo("done"));
+        client.admin().indices().prepareRefresh("tweets").execute().actionGet();
+        assertThat(client.prepareCount("tweets").setTypes("tweet").execute().actionGet().getCount(), equalTo(0L));
+        assertThat(client.prepareCount("tweets").setTypes("user").execute().actionGet().getCount(), equalTo(1L));
+        assertThat(file.exists(), equalTo(false));
+        assertThat(new File("data/checkpoints/multi.user.checkpoint").exists(), equalTo(false));
+    }
+
+    @Test public void reindexViaTransport() throws Exception {
+        client.admin().indices().prepareCreate("oldtweets").
+                setSettings("{ \"index.number_of_shards\" : 2 }").execute().actionGet();
+        for (int i = 0; i < 5; i++) {
+            client.prepareIndex("oldtweets", "tweet").setSource("{ \"name\" : \"hello world\"}").
+                    execute().actionGet();
+        }
+        client.admin().indices().prepareRefresh("oldtweets").execute().actionGet();
+        NodesInfoResponse info = client.admin().cluster().prepareNodesInfo().setTransport(true).
+                execute().actionGet();
+        InetSocketTransportAddress address = (InetSocketTransportAddress) info.getNodes()[0].
+                getTransport().getAddress().publishAddress();
+        JSONObject job = request(new HttpPut("http://localhost:9200/tweets/tweet/_reindex?searchIndex=oldtweets"
+                + "&searchHost=localhost&searchPort=" + address.address().getPort()
+                + "&clusterName=" + info.getClusterName().value() + "&parallelism=2&waitForCompletion=true"));
+        assertThat(job.getString("state"), equalTo("done"));
+        assertThat(job.getInt("collected"), equalTo(5));
+        client.admin().indices().prepareRefresh("tweets").execute().actionGet();
+        assertThat(client.prepareCount("tweets").execute().actionGet().getCount(), equalTo(5L));
+    }
+
+    @Test public void cutover() throws Exception {
+        client.admin().indices().prepareCreate("oldtweets").execute().actionGet();
+        client.admin().indices().prepareAliases().addAlias("oldtweets", "tweets_alias").execute().actionGet();
+        for (int i = 1; i <= 3; i++) {
+            client.prepareIndex("oldtweets", "tweet").setSource("{ \"name\" : \"hello\", \"ts\" : " + i + "}").
+                    setRefresh(true).execute().actionGet();
+        }
+        JSONObject job = request(new HttpPut("http://localhost:9200/_reindex?index=tweets&type=tweet"
+                + "&searchIndex=oldtweets&cutover=true&timestampField=ts&waitForCompletion=true"));
+        assertThat(job.getString("state"), equalTo("done"));
+        assertThat(job.getLong("blackout_in_millis"), greaterThanOrEqualTo(0L));
+
+        ClusterState state = client.admin().cluster().prepareState().execute().actionGet().getState();
+        assertThat(state.metaData().index("tweets").aliases().containsKey("tweets_alias"), equalTo(true));
+        assertThat(state.metaData().index("oldtweets").aliases().isEmpty(), equalTo(true));
+        assertThat(state.metaData().index("oldtweets").settings().get("index.blocks.write"), equalTo("true"));
+        assertThat(client.prepareCount("tweets_alias").execute().actionGet().getCount(), equalTo(3L));
+        client.admin().indices().prepareUpdateSettings("oldtweets").
+                setSettings("{ \"index.blocks.write\" : false }").execute().actionGet();
+
+        // mirroring never finishes, so the cutover would never start
+        DefaultHttpClient http = new DefaultHttpClient();
+        try {
+            HttpResponse rsp = http.execute(new HttpPut("http://localhost:9200/_reindex?index=tweets2&type=tweet"
+                    + "&searchIndex=oldtweets&cutover=true&mirror=true&timestampField=ts"));
+            assertThat(rsp.getStatusLine().getStatusCode(), equalTo(417));
+            EntityUtils.consume(rsp.getEntity());
+        } finally {
+            http.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test public void bulkLoadProfile() throws Exception {
+        client.admin().indices().prepareCreate("oldtweets").
+                setSettings("{ \"index.number_of_replicas\" : 0, \"index.refresh_interval\" : \"2s\" }").
+                execute().actionGet();
+        client.prepareIndex("oldtweets", "tweet").setSource("{ \"name\" : \"hello world\"}").
+                setRefresh(true).execute().actionGet();
+        BulkLoadProfile profile = new BulkLoadProfile(client, "oldtweets");
+        profile.apply();
+        assertThat(indexSettings("oldtweets").get("index.refresh_interval"), equalTo("-1"));
+        assertThat(indexSettings("oldtweets").get("index.translog.flush_threshold_ops"), equalTo("100000"));
+        profile.restore();
+        assertThat(indexSettings("oldtweets").get("index.refresh_interval"), equalTo("2s"));
+        assertThat(indexSettings("oldtweets").get("index.translog.flush_threshold_ops"), equalTo("5000"));
+
+        JSONObject job = request(new HttpPut("http://localhost:9200/_reindex?index=tweets&type=tweet"
+                + "&searchIndex=oldtweets&bulkLoad=true&optimizeSegments=1&waitForCompletion=true"));
+        assertThat(job.getString("state"), equalTo("done"));
+        assertThat(indexSettings("tweets").get("index.refresh_interval"), equalTo("2s"));
+        assertThat(indexSettings("tweets").get("index.number_of_replicas"), equalTo("0"));
+    }
+
+    @Test public void bulkLoadProfileAfterRestart() throws Exception {
+        client.admin().indices().prepareCreate("tweets").
+                setSettings("{ \"index.number_of_replicas\" : 0, \"index.refresh_interval\" : \"2s\" }").
+                execute().actionGet();
+        File file = new File("data/checkpoints/tweets.bulkload");
+        file.delete();
+        new BulkLoadProfile(client, "tweets", file).apply();
+        assertThat(file.exists(), equalTo(true));
+        // the node stopped before restore, a new run finds the settings of the profile
+        BulkLoadProfile profile = new BulkLoadProfile(client, "tweets", file);
+        profile.apply();
+        assertThat(indexSettings("tweets").get("index.refresh_interval"), equalTo("-1"));
+        profile.restore();
+        assertThat(indexSettings("tweets").get("index.refresh_interval"), equalTo("2s"));
+        assertThat(indexSettings("tweets").get("index.translog.flush_threshold_ops"), equalTo("5000"));
+        assertThat(file.exists(), equalTo(false));
+    }
+
+    private Settings indexSettings(String index) {
+        return client.admin().cluster().prepareState().execute().actionGet().getState().
+                metaData().index(index).settings();
+    }
+
+    private JSONObject request(HttpUriRequest req) throws Exception {
+        DefaultHttpClient http = new DefaultHttpClient();
+        try {
+            HttpResponse rsp = http.execute(req);
+            assertThat(rsp.getStatusLine().getStatusCode(), equalTo(200));
+            return new JSONObject(EntityUtils.toString(rsp.getEntity(), "UTF-8"));
+        } finally {
+            http.getConnectionManager().shutdown();
+        }
     }
 }
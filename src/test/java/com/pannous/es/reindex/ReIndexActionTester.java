@@ -1,5 +1,16 @@
 package com.pannous.es.reindex;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
 import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
 import org.elasticsearch.action.count.CountRequest;
@@ -7,6 +18,7 @@ import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.common.settings.ImmutableSettings;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.rest.RestController;
 import org.elasticsearch.search.sort.SortOrder;
 import org.testng.annotations.AfterClass;
@@ -30,10 +42,14 @@ public abstract class ReIndexActionTester extends AbstractNodesTests {
     protected ReIndexAction action;
 
     @BeforeClass public void createNodes() throws Exception {
-        startNode("node1");
+        startNode("node1", nodeSettings());
         client = client("node1");
     }
 
+    protected Settings nodeSettings() {
+        return ImmutableSettings.settingsBuilder().build();
+    }
+
     @AfterClass public void closeNodes() {
         client.close();
         closeAllNodes();
@@ -49,8 +65,17 @@ public abstract class ReIndexActionTester extends AbstractNodesTests {
         return scrollSearch(searchIndex, searchType, query, 10, false, 1);
     }
 
+    protected MySearchResponse scrollSearch(String searchIndex, String searchType,
+            String filter, int hits, boolean withVersion, int keepMinutes) {
+        return scrollSearch(searchIndex, searchType, filter, hits, withVersion, keepMinutes, null);
+    }
+
     protected abstract MySearchResponse scrollSearch(String searchIndex, String searchType,
-            String filter, int hits, boolean withVersion, int keepMinutes);
+            String filter, int hits, boolean withVersion, int keepMinutes, String preference);
+
+    protected boolean localAction() {
+        return true;
+    }
 
     @Test public void reindexAll() throws Exception {
         add("oldtweets", "tweet", "{ \"name\" : \"hello world\", \"count\" : 1}");
@@ -71,6 +96,25 @@ public abstract class ReIndexActionTester extends AbstractNodesTests {
         assertThat(new JSONObject(sr.getHits().hits()[1].sourceAsString()).getString("name"), equalTo("peter ä test"));
     }
 
+    @Test public void reindexCountsSourceBytesOnce() throws Exception {
+        String[] sources = {"{ \"name\" : \"hello world\"}", "{ \"name\" : \"peter\"}", "{}"};
+        long sourceBytes = 0;
+        for (String source : sources) {
+            add("oldtweets", "tweet", source);
+            sourceBytes += source.getBytes("UTF-8").length;
+        }
+        refresh("oldtweets");
+        for (boolean prefetch : new boolean[]{false, true}) {
+            ReIndexJob job = new ReIndexJob("1", "oldtweets -> tweets");
+            MySearchResponse rsp = scrollSearch("oldtweets", "tweet", "", 1, false, 1);
+            if (prefetch)
+                rsp = new MySearchResponsePrefetch(rsp, 2);
+            int res = action.reindex(rsp, "tweets", "tweet", false, 0, job);
+            assertThat(res, equalTo(3));
+            assertThat(job.progress().bytes(), equalTo(sourceBytes));
+        }
+    }
+
     @Test public void reindexAllPartial() throws Exception {
         add("oldtweets", "tweet", "{ \"name\" : \"hello world\", \"count\" : 1}");
         add("oldtweets", "tweet", "{ \"name\" : \"peter test\", \"count\" : 2}");
@@ -85,6 +129,315 @@ public abstract class ReIndexActionTester extends AbstractNodesTests {
         assertThat(new JSONObject(sr.getHits().hits()[0].sourceAsString()).getString("name"), equalTo("peter test"));
     }
 
+    @Test public void reindexCompressedSource() throws Exception {
+        client.admin().indices().prepareCreate("oldtweets").
+                addMapping("tweet", "{ \"tweet\" : { \"_source\" : { \"compress\" : true } } }").
+                execute().actionGet();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            sb.append("hello world ");
+        }
+        add("oldtweets", "tweet", "{ \"name\" : \"" + sb + "\", \"count\" : 1}");
+        refresh("oldtweets");
+
+        int res = action.reindex(scrollSearch("oldtweets", "tweet", ""), "tweets", "tweet", false, 0);
+        assertThat(res, equalTo(1));
+        refresh("tweets");
+        SearchResponse sr = client.prepareSearch("tweets").setQuery(QueryBuilders.termQuery("name", "hello")).
+                execute().actionGet();
+        assertThat(sr.getHits().hits().length, equalTo(1));
+        assertThat(new JSONObject(sr.getHits().hits()[0].sourceAsString()).getString("name"), equalTo(sb.toString()));
+    }
+
+    @Test public void reindexPrefetched() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            add("oldtweets", "tweet", "{ \"name\" : \"hello world\", \"count\" : " + i + "}");
+        }
+        refresh("oldtweets");
+        MySearchResponsePrefetch rsp = new MySearchResponsePrefetch(
+                scrollSearch("oldtweets", "tweet", "", 1, false, 1), 2);
+        int res = action.reindex(rsp, "tweets", "tweet", false, 0);
+        rsp.close();
+        assertThat(res, equalTo(5));
+        refresh("tweets");
+        assertThat(count("tweets"), equalTo(5L));
+    }
+
+    @Test public void reindexParallel() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            add("oldtweets", "tweet", "{ \"name\" : \"hello world\", \"count\" : " + i + "}");
+        }
+        refresh("oldtweets");
+        List<Callable<MySearchResponse>> readers = new ArrayList<Callable<MySearchResponse>>();
+        for (int shard = 0; shard < action.numberOfShards("oldtweets"); shard++) {
+            final String preference = "_shards:" + shard;
+            readers.add(new Callable<MySearchResponse>() {
+                @Override public MySearchResponse call() {
+                    return scrollSearch("oldtweets", "tweet", "", 2, false, 1, preference);
+                }
+            });
+        }
+        ReIndexJob job = new ReIndexJob("1", "oldtweets -> tweets");
+        int res = action.reindex(readers, "tweets", "tweet", false, 0, 3, job);
+        ReIndexProgress progress = job.progress();
+        assertThat(res, equalTo(20));
+        assertThat(progress.total(), equalTo(20L));
+        assertThat(progress.failed(), equalTo(0L));
+        refresh("tweets");
+        assertThat(count("tweets"), equalTo(20L));
+    }
+
+    @Test public void reindexAdaptiveBulkSize() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            add("oldtweets", "tweet", "{ \"name\" : \"hello world\", \"count\" : " + i + "}");
+        }
+        refresh("oldtweets");
+        ReIndexJob job = new ReIndexJob("1", "oldtweets -> tweets").
+                bulkSize(new AdaptiveBulkSize(3, 2, 5, 1000));
+        MySearchResponse scrollSearch = scrollSearch("oldtweets", "tweet", "", 10, false, 1);
+        int res = action.reindex(scrollSearch, "tweets", "tweet", false, 0, job);
+        assertThat(res, equalTo(20));
+        assertThat(job.progress().failed(), equalTo(0L));
+        assertThat(job.bulkSize().size(), greaterThan(3));
+        refresh("tweets");
+        assertThat(count("tweets"), equalTo(20L));
+    }
+
+    @Test public void reindexMergesAndSplitsPagesIntoBulks() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            add("oldtweets", "tweet", "{ \"name\" : \"hello world\", \"count\" : " + i + "}");
+        }
+        refresh("oldtweets");
+        // the small pages are merged
+        ReIndexJob job = new ReIndexJob("1", "oldtweets -> tweets").bulkLimits(7, 0);
+        int res = action.reindex(scrollSearch("oldtweets", "tweet", "", 2, false, 1), "tweets", "tweet", false, 0, job);
+        assertThat(res, equalTo(20));
+        assertThat(job.stats().bulkLatency().count(), equalTo(3L));
+
+        // every document reaches the byte limit
+        job = new ReIndexJob("2", "oldtweets -> tweets").bulkLimits(1000, 1);
+        res = action.reindex(scrollSearch("oldtweets", "tweet", "", 10, false, 1), "tweets", "tweet", false, 0, job);
+        assertThat(res, equalTo(20));
+        assertThat(job.stats().bulkLatency().count(), equalTo(20L));
+        assertThat(job.progress().failed(), equalTo(0L));
+        refresh("tweets");
+        assertThat(count("tweets"), equalTo(20L));
+    }
+
+    @Test public void reindexWithConcurrentBulks() throws Exception {
+        // number in the new index but a string in the old
+        add("tweets", "tweet", "{ \"name\" : \"existing\", \"likes\" : 1}");
+        add("oldtweets", "tweet", "{ \"name\" : \"invalid\", \"likes\" : \"no number\"}");
+        for (int i = 0; i < 20; i++) {
+            add("oldtweets", "tweet", "{ \"name\" : \"hello world\", \"count\" : " + i + "}");
+        }
+        refresh("oldtweets");
+        ReIndexJob job = new ReIndexJob("1", "oldtweets -> tweets").bulkLimits(3, 0).concurrentBulks(3);
+        int res = action.reindex(scrollSearch("oldtweets", "tweet", "", 10, false, 1), "tweets", "tweet", false, 0, job);
+        assertThat(res, equalTo(21));
+        assertThat(job.stats().bulkLatency().count(), equalTo(7L));
+        assertThat(job.progress().failed(), equalTo(1L));
+        assertThat(job.progress().retried(), equalTo(0L));
+        refresh("tweets");
+        assertThat(count("tweets"), equalTo(21L));
+    }
+
+    @Test public void reindexWithTransformThreads() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            add("oldtweets", "tweet", "{ \"name\" : \"hello world\", \"count\" : " + i + "}");
+        }
+        refresh("oldtweets");
+        final Set<String> threads = Collections.synchronizedSet(new HashSet<String>());
+        final AtomicInteger transforms = new AtomicInteger();
+        ReIndexAction transformAction = new ReIndexAction(ImmutableSettings.settingsBuilder().build(), client, null) {
+            @Override protected HitTransform createTransform() {
+                transforms.incrementAndGet();
+                return new HitTransform() {
+                    @Override public MySearchHits transform(MySearchHits hits) {
+                        threads.add(Thread.currentThread().getName());
+                        return hits;
+                    }
+                };
+            }
+        };
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        try {
+            for (boolean ordered : new boolean[]{true, false}) {
+                ReIndexJob job = new ReIndexJob("1", "oldtweets -> tweets").transform(pool, 3, ordered);
+                int res = transformAction.reindex(scrollSearch("oldtweets", "tweet", "", 2, false, 1),
+                        "tweets", "tweet", false, 0, job);
+                assertThat(res, equalTo(20));
+                assertThat(job.progress().failed(), equalTo(0L));
+                assertThat(job.stats().docsWritten(), equalTo(20L));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        // one transform per pool thread and none in the reader thread
+        assertThat(transforms.get(), lessThanOrEqualTo(3));
+        assertThat(threads, not(hasItem(Thread.currentThread().getName())));
+        refresh("tweets");
+        assertThat(count("tweets"), equalTo(20L));
+    }
+
+    @Test public void reindexDoesNotRetryInvalidDocuments() throws Exception {
+        // number in the new index but a string in the old
+        add("tweets", "tweet", "{ \"name\" : \"existing\", \"likes\" : 1}");
+        add("oldtweets", "tweet", "{ \"name\" : \"hello world\"}");
+        add("oldtweets", "tweet", "{ \"name\" : \"invalid\", \"likes\" : \"no number\"}");
+        refresh("oldtweets");
+        ReIndexJob job = new ReIndexJob("1", "oldtweets -> tweets").backoff(new BackoffPolicy(3, 10, 100));
+        int res = action.reindex(scrollSearch("oldtweets", "tweet", ""), "tweets", "tweet", false, 0, job);
+        assertThat(res, equalTo(2));
+        assertThat(job.progress().failed(), equalTo(1L));
+        assertThat(job.progress().retried(), equalTo(0L));
+        refresh("tweets");
+        assertThat(count("tweets"), equalTo(2L));
+    }
+
+    @Test public void reindexWithCheckpoint() throws Exception {
+        for (String id : new String[]{"a1", "a2", "b1", "Z1", "_x"}) {
+            client.prepareIndex("oldtweets", "tweet", id).setSource("{ \"name\" : \"" + id + "\"}").
+                    execute().actionGet();
+        }
+        // number in the new index but a string in the old, so range 'c' fails
+        add("tweets", "tweet", "{ \"name\" : \"existing\", \"likes\" : 1}");
+        client.prepareIndex("oldtweets", "tweet", "c1").setSource("{ \"likes\" : \"no number\"}").
+                execute().actionGet();
+        refresh("oldtweets");
+        File file = new File("data/test.checkpoint");
+        file.delete();
+        // range 'a' was copied before the restart
+        new ReIndexCheckpoint(file, "test").done("a", 2);
+        ReIndexCheckpoint checkpoint = new ReIndexCheckpoint(file, "test");
+        assertThat(checkpoint.isDone("a"), equalTo(true));
+
+        List<Callable<MySearchResponse>> readers = new ArrayList<Callable<MySearchResponse>>();
+        for (String[] range : ReIndexCheckpoint.idRanges(1)) {
+            if (checkpoint.isDone(ReIndexCheckpoint.name(range)))
+                continue;
+            final String filter = ReIndexAction.uidRangeFilter("", "tweet", range);
+            readers.add(action.createCheckpointReader(new Callable<MySearchResponse>() {
+                @Override public MySearchResponse call() {
+                    return scrollSearch("oldtweets", "tweet", filter, 10, false, 1);
+                }
+            }, checkpoint, ReIndexCheckpoint.name(range)));
+        }
+        int res = action.reindex(readers, "tweets", "tweet", false, 0, 4, new ReIndexJob("1", "test"));
+        assertThat(res, equalTo(4));
+        assertThat(checkpoint.doneRanges(), equalTo(ReIndexCheckpoint.idRanges(1).size() - 1));
+        assertThat(checkpoint.isDone("c"), equalTo(false));
+        assertThat(checkpoint.failedRanges(), equalTo(1));
+        assertThat(checkpoint.doneDocs(), equalTo(5L));
+        assertThat(new ReIndexCheckpoint(file, "test").doneDocs(), equalTo(5L));
+        refresh("tweets");
+        assertThat(count("tweets"), equalTo(4L));
+        file.delete();
+    }
+
+    @Test public void cancelDoesNotFinishCheckpointRange() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            add("oldtweets", "tweet", "{ \"name\" : \"hello world\", \"count\" : " + i + "}");
+        }
+        refresh("oldtweets");
+        File file = new File("data/cancel.checkpoint");
+        file.delete();
+        ReIndexCheckpoint checkpoint = new ReIndexCheckpoint(file, "cancel");
+        final CountDownLatch exhausted = new CountDownLatch(1);
+        final ReIndexJob job = new ReIndexJob("1", "cancel");
+        // cancels while the pages are transformed after the scroll was exhausted
+        ReIndexAction transformAction = new ReIndexAction(ImmutableSettings.settingsBuilder().build(), client, null) {
+            @Override protected HitTransform createTransform() {
+                return new HitTransform() {
+                    @Override public MySearchHits transform(MySearchHits hits) {
+                        try {
+                            exhausted.await();
+                        } catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                        }
+                        job.cancel();
+                        return hits;
+                    }
+                };
+            }
+        };
+        MySearchResponse rsp = new MySearchResponseCheckpoint(scrollSearch("oldtweets", "tweet", "", 10, false, 1),
+                checkpoint, "all") {
+            @Override public int doScoll() {
+                int size = super.doScoll();
+                if (size == 0)
+                    exhausted.countDown();
+                return size;
+            }
+        };
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        try {
+            job.transform(pool, 3, true);
+            assertThat(transformAction.reindex(rsp, "tweets", "tweet", false, 0, job), equalTo(0));
+        } finally {
+            pool.shutdownNow();
+        }
+        assertThat(job.isCancelled(), equalTo(true));
+        assertThat(checkpoint.isDone("all"), equalTo(false));
+        assertThat(new ReIndexCheckpoint(file, "cancel").doneRanges(), equalTo(0));
+        file.delete();
+    }
+
+    @Test public void reindexViaDump() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            add("oldtweets", "tweet", "{ \"name\" : \"hello world\", \"count\" : " + i + "}");
+        }
+        refresh("oldtweets");
+        for (File file : FileBulkSink.files(action.dumpDir(), "test")) {
+            file.delete();
+        }
+        FileBulkSink sink = new FileBulkSink(action.dumpDir(), "test", 1000);
+        ReIndexJob job = new ReIndexJob("1", "oldtweets -> dump").bulkLimits(3, 0).sink(sink);
+        int res = action.reindex(scrollSearch("oldtweets", "tweet", "", 10, false, 1), "tweets", "tweet", false, 0, job);
+        sink.close();
+        assertThat(res, equalTo(20));
+        File[] files = FileBulkSink.files(action.dumpDir(), "test");
+        assertThat(files.length, greaterThan(1));
+
+        // more readers than files, so every file is split
+        List<Callable<MySearchResponse>> readers = action.createDumpReaders("test", 2 * files.length);
+        assertThat(readers.size(), equalTo(2 * files.length));
+        job = new ReIndexJob("2", "dump -> tweets");
+        res = action.reindex(readers, "tweets", "tweet", false, 0, 3, job);
+        assertThat(res, equalTo(20));
+        assertThat(job.progress().total(), equalTo(20L));
+        refresh("tweets");
+        assertThat(count("tweets"), equalTo(20L));
+        SearchResponse sr = client.prepareSearch("tweets").setQuery(QueryBuilders.termQuery("count", 7)).
+                execute().actionGet();
+        assertThat(sr.getHits().hits()[0].sourceAsString(), equalTo("{ \"name\" : \"hello world\", \"count\" : 7}"));
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    @Test public void reindexDelta() throws Exception {
+        for (int i = 1; i <= 3; i++) {
+            add("oldtweets", "tweet", "{ \"name\" : \"hello world\", \"ts\" : " + i + "}");
+        }
+        // the delta sync refreshes the source itself
+        ReIndexAction.DeltaSync delta = action.new DeltaSync(localAction() ? client : null, "localhost", 9200, "oldtweets",
+                "tweet", "", "", 10, false, 1, 0, 1, "ts", false, 0, 0);
+        delta.start();
+        assertThat(((Number) delta.mark).longValue(), equalTo(3L));
+        ReIndexJob job = new ReIndexJob("1", "oldtweets -> tweets");
+        action.reindex(scrollSearch("oldtweets", "tweet", ""), "tweets", "tweet", false, 0, job);
+
+        // written while the full pass was running
+        add("oldtweets", "tweet", "{ \"name\" : \"new\", \"ts\" : 5}");
+        add("oldtweets", "tweet", "{ \"name\" : \"too old\", \"ts\" : 0}");
+        // first pass copies ts >= 3, second finds no newer document
+        assertThat(delta.run("tweets", "tweet", 0, job), equalTo(2L));
+        assertThat(((Number) job.highWaterMark()).longValue(), equalTo(5L));
+        refresh("tweets");
+        assertThat(count("tweets"), equalTo(4L));
+    }
+
     private void add(String index, String type, String json) {
         client.prepareIndex(index, type).setSource(json).execute().actionGet();
     }
@@ -0,0 +1,68 @@
+package com.pannous.es.reindex;
+
+import org.testng.annotations.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class ReIndexJobTest {
+
+    @Test public void pauseResumeCancel() throws Exception {
+        final ReIndexJob job = new ReIndexJob("1", "test");
+        job.started();
+        assertThat(job.state(), equalTo(ReIndexJob.State.RUNNING));
+        assertThat(job.pause(), equalTo(true));
+        assertThat(job.pause(), equalTo(false));
+
+        final boolean[] running = new boolean[1];
+        Thread worker = new Thread() {
+            @Override public void run() {
+                running[0] = job.awaitRunning();
+            }
+        };
+        worker.start();
+        Thread.sleep(50);
+        assertThat(worker.isAlive(), equalTo(true));
+        assertThat(job.resume(), equalTo(true));
+        worker.join(1000);
+        assertThat(running[0], equalTo(true));
+
+        assertThat(job.cancel(), equalTo(true));
+        assertThat(job.awaitRunning(), equalTo(false));
+        job.finished(null);
+        assertThat(job.state(), equalTo(ReIndexJob.State.CANCELLED));
+        assertThat(job.cancel(), equalTo(false));
+    }
+
+    @Test public void finishListeners() {
+        final ReIndexJob job = new ReIndexJob("1", "test");
+        final String[] states = new String[2];
+        job.onFinished(new Runnable() {
+            @Override public void run() {
+                states[0] = job.state().name();
+            }
+        });
+        assertThat(states[0], nullValue());
+        job.started();
+        job.finished(null);
+        assertThat(states[0], equalTo("DONE"));
+        // already finished
+        job.onFinished(new Runnable() {
+            @Override public void run() {
+                states[1] = "called";
+            }
+        });
+        assertThat(states[1], equalTo("called"));
+    }
+
+    @Test public void eta() {
+        ReIndexJob job = new ReIndexJob("1", "test");
+        assertThat(job.etaInSeconds(), equalTo(-1L));
+        job.progress().addTotal(100);
+        job.progress().addCollected(50);
+        job.started();
+        job.finished(new RuntimeException("test"));
+        assertThat(job.state(), equalTo(ReIndexJob.State.FAILED));
+        assertThat(job.error(), equalTo("test"));
+    }
+}
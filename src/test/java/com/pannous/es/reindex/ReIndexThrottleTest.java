@@ -0,0 +1,45 @@
+package com.pannous.es.reindex;
+
+import org.testng.annotations.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class ReIndexThrottleTest {
+
+    @Test public void limitDocs() throws Exception {
+        ReIndexThrottle throttle = new ReIndexThrottle().limits(200, 0);
+        long start = System.currentTimeMillis();
+        throttle.acquire(20, 1000000);
+        throttle.acquire(40, 1000000);
+        // 60 docs at 200 docs/s
+        assertThat(System.currentTimeMillis() - start, greaterThanOrEqualTo(250L));
+    }
+
+    @Test public void unlimited() throws Exception {
+        ReIndexThrottle throttle = new ReIndexThrottle();
+        assertThat(throttle.isLimited(), equalTo(false));
+        long start = System.currentTimeMillis();
+        throttle.acquire(1000000, 1000000000);
+        assertThat(System.currentTimeMillis() - start, lessThan(100L));
+    }
+
+    @Test public void changeWhileWaiting() throws Exception {
+        final ReIndexThrottle throttle = new ReIndexThrottle().limits(0, 1);
+        Thread worker = new Thread() {
+            @Override public void run() {
+                try {
+                    // would take 100 seconds
+                    throttle.acquire(1, 100 << 20);
+                } catch (InterruptedException ex) {
+                }
+            }
+        };
+        worker.start();
+        Thread.sleep(50);
+        assertThat(worker.isAlive(), equalTo(true));
+        throttle.limits(0, 0);
+        worker.join(1000);
+        assertThat(worker.isAlive(), equalTo(false));
+    }
+}